@@ -0,0 +1,85 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Lookups in an Alphabet listed character by character against the
+ *  same characters as a CharacterRange.  Each operation looks up every
+ *  character of a fixed block, so results are in blocks per second.
+ *  @author Abel Yagubyan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class AlphabetBench {
+
+    /** Kind of alphabet measured. */
+    @Param({ "Alphabet", "CharacterRange" })
+    public String kind;
+
+    /** Number of characters in the alphabet, starting from 'A'. */
+    @Param({ "26", "64" })
+    public int size;
+
+    /** Set up the alphabet and a block of its characters. */
+    @Setup
+    public void setUp() {
+        char last = (char) ('A' + size - 1);
+        if (kind.equals("CharacterRange")) {
+            _alpha = new CharacterRange('A', last);
+        } else {
+            StringBuilder chars = new StringBuilder();
+            for (char ch = 'A'; ch <= last; ch += 1) {
+                chars.append(ch);
+            }
+            _alpha = new Alphabet(chars.toString());
+        }
+        _block = Fixtures.message(_alpha, BLOCK).toCharArray();
+    }
+
+    /** Return the sum of the indices of the block's characters. */
+    @Benchmark
+    public int toInt() {
+        int sum = 0;
+        for (char ch : _block) {
+            sum += _alpha.toInt(ch);
+        }
+        return sum;
+    }
+
+    /** Return the number of the block's characters (each shifted by
+     *  one) in the alphabet. */
+    @Benchmark
+    public int contains() {
+        int count = 0;
+        for (char ch : _block) {
+            if (_alpha.contains((char) (ch + 1))) {
+                count += 1;
+            }
+        }
+        return count;
+    }
+
+    /** Number of characters looked up per operation. */
+    private static final int BLOCK = 1024;
+
+    /** The alphabet measured. */
+    private Alphabet _alpha;
+
+    /** Characters to look up. */
+    private char[] _block;
+}
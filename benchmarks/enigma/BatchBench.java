@@ -0,0 +1,95 @@
+package enigma;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Conversion of many short messages, each under its own key, by a
+ *  BatchConverter and by one MachineSpec.convert call per message.  The
+ *  forks add jdk.incubator.vector, so the batch uses its vector kernel;
+ *  pass -jvmArgsAppend -Denigma.vector=false to measure the scalar one.
+ *  @author Abel Yagubyan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(value = 2, jvmArgsAppend = "--add-modules=jdk.incubator.vector")
+public class BatchBench {
+
+    /** Number of messages in the batch. */
+    @Param({ "16", "1024", "16384" })
+    public int messages;
+
+    /** Number of characters in each message. */
+    @Param({ "10", "100" })
+    public int length;
+
+    /** Set up MESSAGES keys, each with a random setting and a one-pair
+     *  plugboard, and a message of LENGTH characters for each. */
+    @Setup
+    public void setUp() {
+        RotorLibrary library = Main.loadLibrary(Fixtures.DEFAULT_CONF);
+        Alphabet alpha = library.alphabet();
+        Random random = new Random(61);
+        _specs = new MachineSpec[messages];
+        _cursors = new MachineCursor[messages];
+        _messages = new String[messages];
+        for (int x = 0; x < messages; x += 1) {
+            String plug = "(" + alpha.toChar(0)
+                + alpha.toChar(1 + random.nextInt(alpha.size() - 1)) + ")";
+            _specs[x] = library.spec(Fixtures.ROTORS,
+                                     new Permutation(plug, alpha));
+            int[] settings = new int[Fixtures.ROTORS.length];
+            for (int k = 1; k < settings.length; k += 1) {
+                settings[k] = random.nextInt(alpha.size());
+            }
+            _cursors[x] = _specs[x].cursor(settings);
+        }
+        String text = Fixtures.message(alpha, messages * length);
+        for (int x = 0; x < messages; x += 1) {
+            _messages[x] = text.substring(x * length, (x + 1) * length);
+        }
+        _batch = new BatchConverter(_specs, _cursors);
+    }
+
+    /** Return the conversions of the batch by the BatchConverter. */
+    @Benchmark
+    public String[] batch() {
+        return _batch.convert(_messages);
+    }
+
+    /** Return the conversions of the batch, one message at a time. */
+    @Benchmark
+    public String[] perMessage() {
+        String[] result = new String[messages];
+        for (int x = 0; x < messages; x += 1) {
+            result[x] = _specs[x].convert(_cursors[x], _messages[x]);
+        }
+        return result;
+    }
+
+    /** Spec of each message. */
+    private MachineSpec[] _specs;
+
+    /** Cursor of each message. */
+    private MachineCursor[] _cursors;
+
+    /** The messages. */
+    private String[] _messages;
+
+    /** Converter holding every message's machine. */
+    private BatchConverter _batch;
+}
@@ -0,0 +1,53 @@
+package enigma;
+
+import java.util.Random;
+
+/** Machines and messages shared by the benchmarks.
+ *  @author Abel Yagubyan
+ */
+final class Fixtures {
+
+    /** Directory holding the configurations and messages of the
+     *  integration tests, relative to the benchmarks directory. */
+    static final String TESTING = "../testing/correct";
+
+    /** The default configuration file. */
+    static final String DEFAULT_CONF = TESTING + "/default.conf";
+
+    /** Settings line used to set up machines from DEFAULT_CONF. */
+    static final String[] ROTORS = { "B", "BETA", "III", "IV", "I" };
+
+    /** Rotor settings used with ROTORS. */
+    static final String SETTING = "AXLE";
+
+    /** Plugboard cycles used with ROTORS. */
+    static final String PLUGBOARD = "(HQ) (EX) (IP) (TR) (BY)";
+
+    /** Not instantiable. */
+    private Fixtures() {
+    }
+
+    /** Return a machine configured from DEFAULT_CONF, with ROTORS
+     *  inserted at SETTING and plugboard PLUGBOARD. */
+    static Machine machine() {
+        RotorLibrary library = Main.loadLibrary(DEFAULT_CONF);
+        Machine result = new Machine(library.alphabet(),
+                                     library.numRotors(),
+                                     library.numPawls(), library.rotors());
+        result.insertRotors(ROTORS);
+        result.setRotors(SETTING);
+        result.setPlugboard(new Permutation(PLUGBOARD, library.alphabet()));
+        return result;
+    }
+
+    /** Return LENGTH characters drawn uniformly from ALPHA, the same ones
+     *  on every call. */
+    static String message(Alphabet alpha, int length) {
+        Random random = new Random(61);
+        char[] result = new char[length];
+        for (int x = 0; x < length; x += 1) {
+            result[x] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return new String(result);
+    }
+}
@@ -0,0 +1,62 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Conversion by a Machine set up from the default configuration, a
+ *  character at a time and a message at a time.  The machine is never
+ *  reset, so stepping runs on through the whole measurement.
+ *  @author Abel Yagubyan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MachineBench {
+
+    /** Number of characters in each message converted by convertString. */
+    @Param({ "10", "1000", "100000", "10000000" })
+    public int length;
+
+    /** Set up the machine and a message of LENGTH characters. */
+    @Setup
+    public void setUp() {
+        _machine = Fixtures.machine();
+        _message = Fixtures.message(new CharacterRange('A', 'Z'), length);
+    }
+
+    /** Return the conversion of one character. */
+    @Benchmark
+    public int convertInt() {
+        _next = (_next + 7) % 26;
+        return _machine.convert(_next);
+    }
+
+    /** Return the conversion of the whole message. */
+    @Benchmark
+    public String convertString() {
+        return _machine.convert(_message);
+    }
+
+    /** The machine measured. */
+    private Machine _machine;
+
+    /** Message converted by convertString. */
+    private String _message;
+
+    /** Last character converted by convertInt. */
+    private int _next;
+}
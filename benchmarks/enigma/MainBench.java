@@ -0,0 +1,68 @@
+package enigma;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Main run end to end on the integration tests in testing/correct:
+ *  reading the configuration, processing the messages and writing the
+ *  results to a scratch file.  As in test-correct, F.in is run with F.conf
+ *  if that exists, and otherwise with default.conf.
+ *  @author Abel Yagubyan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class MainBench {
+
+    /** Name of the test measured. */
+    @Param({ "case1", "case2", "case3", "case4", "case5", "trivial" })
+    public String test;
+
+    /** Find the test's files and create the scratch output file. */
+    @Setup
+    public void setUp() throws IOException {
+        String base = Fixtures.TESTING + "/" + test;
+        _config = new File(base + ".conf").exists()
+            ? base + ".conf" : Fixtures.DEFAULT_CONF;
+        _input = base + ".in";
+        _output = File.createTempFile("enigma", ".out");
+    }
+
+    /** Remove the scratch output file. */
+    @TearDown
+    public void tearDown() {
+        _output.delete();
+    }
+
+    /** Run Main on the test. */
+    @Benchmark
+    public void process() {
+        Main.main(_config, _input, _output.getPath());
+    }
+
+    /** Configuration file of the test. */
+    private String _config;
+
+    /** Input file of the test. */
+    private String _input;
+
+    /** Scratch output file. */
+    private File _output;
+}
@@ -0,0 +1,70 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** Permutation.permute and Permutation.invert on the wirings of the
+ *  default configuration.  Each operation maps every index of the
+ *  alphabet once.
+ *  @author Abel Yagubyan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class PermutationBench {
+
+    /** Cycles of the permutation measured. */
+    @Param({ "(AELTPHQXRU) (BKNW) (CMOY) (DFG) (IV) (JZ) (S)",
+             "(AE) (BN) (CK) (DQ) (FU) (GY) (HW) (IJ) (LO) (MP) (RX) "
+             + "(SZ) (TV)",
+             "(HQ) (EX) (IP) (TR) (BY)" })
+    public String cycles;
+
+    /** Set up the permutation. */
+    @Setup
+    public void setUp() {
+        Alphabet alpha = new CharacterRange('A', 'Z');
+        _perm = new Permutation(cycles, alpha);
+        _size = alpha.size();
+    }
+
+    /** Return the sum of the images of every index. */
+    @Benchmark
+    public int permute() {
+        int sum = 0;
+        for (int x = 0; x < _size; x += 1) {
+            sum += _perm.permute(x);
+        }
+        return sum;
+    }
+
+    /** Return the sum of the inverse images of every index. */
+    @Benchmark
+    public int invert() {
+        int sum = 0;
+        for (int x = 0; x < _size; x += 1) {
+            sum += _perm.invert(x);
+        }
+        return sum;
+    }
+
+    /** The permutation measured. */
+    private Permutation _perm;
+
+    /** Size of its alphabet. */
+    private int _size;
+}
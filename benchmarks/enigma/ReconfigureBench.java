@@ -0,0 +1,71 @@
+package enigma;
+
+import java.util.concurrent.TimeUnit;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+/** The cost of reconfiguring a Machine, as Main does for each settings
+ *  line: inserting rotors, setting them, and converting the first
+ *  character afterwards (which pays for any tables the new
+ *  configuration needs), and the same through a MachineCache that has
+ *  seen the settings before.
+ *  @author Abel Yagubyan
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(2)
+public class ReconfigureBench {
+
+    /** Set up the machine. */
+    @Setup
+    public void setUp() {
+        _machine = Fixtures.machine();
+        _machines = new MachineCache(
+            Main.loadLibrary(Fixtures.DEFAULT_CONF), 16);
+    }
+
+    /** Set the rotors. */
+    @Benchmark
+    public void setRotors() {
+        _machine.setRotors(Fixtures.SETTING);
+    }
+
+    /** Insert the rotors. */
+    @Benchmark
+    public void insertRotors() {
+        _machine.insertRotors(Fixtures.ROTORS);
+    }
+
+    /** Insert and set the rotors, then convert one character. */
+    @Benchmark
+    public int settingsLine() {
+        _machine.insertRotors(Fixtures.ROTORS);
+        _machine.setRotors(Fixtures.SETTING);
+        return _machine.convert(0);
+    }
+
+    /** Take the machine from the cache, then convert one character. */
+    @Benchmark
+    public int cachedSettingsLine() {
+        return _machines.get(Fixtures.ROTORS, Fixtures.SETTING,
+                             Fixtures.PLUGBOARD).convert(0);
+    }
+
+    /** The machine measured. */
+    private Machine _machine;
+
+    /** Cache of the machine measured by cachedSettingsLine. */
+    private MachineCache _machines;
+}
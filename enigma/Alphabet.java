@@ -1,5 +1,7 @@
 package enigma;
 
+import java.util.Arrays;
+
 import static enigma.EnigmaException.error;
 
 /** An alphabet of encodable characters.  Provides a mapping from characters
@@ -11,9 +13,47 @@ class Alphabet {
     /** A new alphabet containing CHARS.  Character number #k has index
      *  K (numbering from 0). No character may be duplicated. */
     Alphabet(String chars) {
-        _alph = new char[chars.length()];
-        for (int x = 0; x < chars.length(); x += 1) {
-            _alph[x] = chars.charAt(x);
+        _alph = chars.toCharArray();
+        char low = Character.MAX_VALUE, high = Character.MIN_VALUE;
+        for (char ch : _alph) {
+            low = (char) Math.min(low, ch);
+            high = (char) Math.max(high, ch);
+        }
+        _low = low;
+        _span = _alph.length == 0 ? 0 : high - low + 1;
+        if (_span <= Math.max(DENSE_SPAN, 4 * _alph.length)
+                && _alph.length <= Short.MAX_VALUE) {
+            _members = new long[(_span + 63) >>> 6];
+            _dense = new short[_span];
+            _keys = null;
+            _values = null;
+            _shift = 0;
+        } else {
+            int cap = Integer.highestOneBit(Math.max(_alph.length, 1)) << 2;
+            _members = null;
+            _dense = null;
+            _keys = new char[cap];
+            _values = new int[cap];
+            Arrays.fill(_values, -1);
+            _shift = Integer.numberOfLeadingZeros(cap - 1);
+        }
+        for (int x = 0; x < _alph.length; x += 1) {
+            char ch = _alph[x];
+            if (contains(ch)) {
+                throw error("The character %c is duplicated!", ch);
+            }
+            int k = ch - _low;
+            if (_dense != null) {
+                _members[k >>> 6] |= 1L << k;
+                _dense[k] = (short) x;
+            } else {
+                int h = slot(ch);
+                while (_values[h] != -1) {
+                    h = (h + 1) & (_keys.length - 1);
+                }
+                _keys[h] = ch;
+                _values[h] = x;
+            }
         }
     }
 
@@ -34,12 +74,13 @@ class Alphabet {
 
     /** Returns true if preprocess(CH) is in this alphabet. */
     boolean contains(char ch) {
-        for (char i : _alph) {
-            if (ch == i) {
-                return true;
-            }
+        int k = ch - _low;
+        if (k < 0 || k >= _span) {
+            return false;
+        } else if (_members != null) {
+            return (_members[k >>> 6] & (1L << k)) != 0;
         }
-        return false;
+        return find(ch) != -1;
     }
 
     /** Returns the val of the str. */
@@ -59,12 +100,28 @@ class Alphabet {
     /** Returns the index of character preprocess(CH), which must be in
      *  the alphabet. This is the inverse of toChar(). */
     int toInt(char ch) {
-        for (int x = 0; x < _alph.length; x += 1) {
-            if (ch == _alph[x]) {
-                return x;
-            }
+        if (!contains(ch)) {
+            throw error("The character is out of range!");
         }
-        throw error("The character is out of range!");
+        if (_dense != null) {
+            return _dense[ch - _low];
+        }
+        return find(ch);
+    }
+
+    /** Returns the index of CH in the sparse index, or -1 if it is
+     *  absent. */
+    private int find(char ch) {
+        int h = slot(ch);
+        while (_values[h] != -1 && _keys[h] != ch) {
+            h = (h + 1) & (_keys.length - 1);
+        }
+        return _values[h];
+    }
+
+    /** Returns the home slot of CH in the sparse index. */
+    private int slot(char ch) {
+        return (ch * 0x9E3779B9) >>> _shift;
     }
 
     /** Val of str. */
@@ -127,4 +184,34 @@ class Alphabet {
 
     /** The letters in the alphabet. */
     private char[] _alph;
+
+    /** Largest span of code points for which a dense index is always
+     *  used. */
+    private static final int DENSE_SPAN = 1 << 12;
+
+    /** The smallest character in the alphabet. */
+    private final char _low;
+
+    /** Number of code points from the smallest to the largest character
+     *  in the alphabet, inclusive (0 if it is empty). */
+    private final int _span;
+
+    /** Membership bitset: bit K is set iff (char) (_low + K) is in the
+     *  alphabet.  Null when the sparse index is used instead. */
+    private final long[] _members;
+
+    /** Dense index: entry K is the index of (char) (_low + K), if that is
+     *  in the alphabet.  Null when the sparse index is used instead. */
+    private final short[] _dense;
+
+    /** Sparse index: an open-addressed table from characters in _keys to
+     *  their indices in _values (-1 marking an empty slot).  Null when
+     *  the dense index is used instead. */
+    private final char[] _keys;
+
+    /** Indices of the characters in _keys. */
+    private final int[] _values;
+
+    /** Shift that reduces a hash to a slot in _keys. */
+    private final int _shift;
 }
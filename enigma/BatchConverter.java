@@ -0,0 +1,573 @@
+package enigma;
+
+import java.util.IdentityHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** Converts many independent messages at once, each on its own machine:
+ *  lane K converts with SPECS[K] from CURSORS[K].  The machine states are
+ *  laid out as structures of arrays (the positions of each slot across
+ *  all lanes, and the offsets of each lane's rotor, plugboard and core
+ *  tables in shared pools), and lanes are advanced and substituted in
+ *  lockstep, a block of lanes at a time.  If the jdk.incubator.vector
+ *  module is present (java --add-modules jdk.incubator.vector), a block
+ *  is one vector of lanes and the tables are read with gathers;
+ *  otherwise, or if the property enigma.vector is false, a scalar kernel
+ *  runs the same loops lane by lane.  Either way the result, and the
+ *  final position of every cursor, is exactly that of converting each
+ *  message with MachineSpec.convert (or Machine.convert).  Lanes whose
+ *  messages are short idle while the rest of their block finishes, so
+ *  batches of messages of similar lengths convert fastest.  A
+ *  BatchConverter may not be used by several threads at once.
+ *  @author Abel Yagubyan
+ */
+final class BatchConverter {
+
+    /** A converter whose lane K converts with SPECS[K] from CURSORS[K].
+     *  All the specs must have the same alphabet, number of slots, number
+     *  of pawls and pattern of rotating slots. */
+    BatchConverter(MachineSpec[] specs, MachineCursor[] cursors) {
+        if (specs.length != cursors.length) {
+            throw error("Every lane needs a spec and a cursor!");
+        }
+        if (specs.length == 0) {
+            throw error("A batch needs at least one lane!");
+        }
+        _kernel = KERNEL;
+        _cursors = cursors.clone();
+        _alphabet = specs[0].alphabet();
+        for (MachineSpec spec : specs) {
+            checkShape(specs[0], spec);
+        }
+        _lanes = new Lanes(specs, cursors, _kernel.width());
+        int width = _kernel.width();
+        _in = new int[TILE * width];
+        _out = new int[TILE * width];
+        _remaining = new int[width];
+    }
+
+    /** Return the number of lanes I convert. */
+    int lanes() {
+        return _cursors.length;
+    }
+
+    /** Return the name of the kernel in use: "vector" or "scalar". */
+    static String kernelName() {
+        return KERNEL.name();
+    }
+
+    /** Return the conversions of MSGS, MSGS[K] being converted on lane
+     *  K, and advance each lane's cursor accordingly. */
+    String[] convert(String[] msgs) {
+        char[][] buf = new char[msgs.length][];
+        for (int x = 0; x < msgs.length; x += 1) {
+            buf[x] = msgs[x].toCharArray();
+        }
+        convert(buf, buf);
+        String[] result = new String[msgs.length];
+        for (int x = 0; x < msgs.length; x += 1) {
+            result[x] = new String(buf[x]);
+        }
+        return result;
+    }
+
+    /** Convert IN[K] on lane K into the start of OUT[K], for each lane K,
+     *  advancing each lane's cursor accordingly.  Every character is
+     *  checked against the alphabet before any cursor moves.  OUT[K] may
+     *  be IN[K]. */
+    void convert(char[][] in, char[][] out) {
+        int lanes = lanes();
+        if (in.length != lanes || out.length != lanes) {
+            throw error("Every lane needs one message!");
+        }
+        long total = 0;
+        for (int x = 0; x < lanes; x += 1) {
+            if (out[x].length < in[x].length) {
+                throw error("The output of lane %d is too short!", x);
+            }
+            for (char ch : in[x]) {
+                if (!_alphabet.contains(ch)) {
+                    throw error("The value isn't part of the alphabet!");
+                }
+            }
+            total += in[x].length;
+        }
+        _lanes.load(_cursors);
+        int width = _kernel.width();
+        for (int from = 0; from < lanes; from += width) {
+            convertBlock(from, Math.min(width, lanes - from), in, out);
+        }
+        _lanes.store(_cursors);
+        Metrics.current().count(Metrics.Counter.CHARACTERS, total);
+    }
+
+    /** Convert the messages of the N lanes starting at lane FROM, taking
+     *  them from IN and storing them in OUT, TILE characters at a
+     *  time. */
+    private void convertBlock(int from, int n, char[][] in, char[][] out) {
+        int width = _kernel.width();
+        int longest = 0;
+        for (int j = 0; j < n; j += 1) {
+            longest = Math.max(longest, in[from + j].length);
+        }
+        for (int done = 0; done < longest; done += TILE) {
+            int steps = Math.min(TILE, longest - done);
+            for (int j = 0; j < width; j += 1) {
+                int rest = j < n ? in[from + j].length - done : 0;
+                _remaining[j] = Math.max(0, Math.min(steps, rest));
+            }
+            for (int j = 0; j < n; j += 1) {
+                char[] msg = in[from + j];
+                for (int t = 0; t < _remaining[j]; t += 1) {
+                    _in[t * width + j] = _alphabet.toInt(msg[done + t]);
+                }
+            }
+            _kernel.convert(_lanes, from, _in, _out, _remaining, steps);
+            for (int j = 0; j < n; j += 1) {
+                char[] msg = out[from + j];
+                for (int t = 0; t < _remaining[j]; t += 1) {
+                    msg[done + t] = _alphabet.toChar(_out[t * width + j]);
+                }
+            }
+        }
+    }
+
+    /** Check that SPEC can share a batch with FIRST. */
+    private static void checkShape(MachineSpec first, MachineSpec spec) {
+        Alphabet alpha = spec.alphabet();
+        boolean same = alpha.size() == first.alphabet().size()
+            && spec.numRotors() == first.numRotors()
+            && spec.numPawls() == first.numPawls();
+        for (int x = 0; same && alpha != first.alphabet()
+                 && x < alpha.size(); x += 1) {
+            same = alpha.toChar(x) == first.alphabet().toChar(x);
+        }
+        for (int x = 0; same && x < spec.numRotors(); x += 1) {
+            same = spec.slot(x).rotates() == first.slot(x).rotates();
+        }
+        if (!same) {
+            throw error("All machines in a batch must have the same shape!");
+        }
+    }
+
+    /** Return the kernel to use: the vector kernel if it can be loaded
+     *  and is not disabled by enigma.vector, else the scalar one. */
+    private static Kernel loadKernel() {
+        if (!"false".equals(System.getProperty("enigma.vector"))) {
+            try {
+                return (Kernel) Class.forName("enigma.VectorBatchKernel")
+                    .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | LinkageError excp) {
+                /* The Vector API is not available: use the scalar
+                 * kernel. */
+            }
+        }
+        return new ScalarKernel();
+    }
+
+    /** Advances and substitutes a block of lanes in lockstep. */
+    interface Kernel {
+
+        /** Return my name. */
+        String name();
+
+        /** Return the number of lanes in one of my blocks. */
+        int width();
+
+        /** Press keys on the width() lanes of LANES starting at lane FROM,
+         *  STEPS times.  At step T, lane FROM + J takes the input
+         *  IN[T * width() + J] and leaves its result in
+         *  OUT[T * width() + J], but only while T < REMAINING[J]; after
+         *  that it neither moves nor produces anything. */
+        void convert(Lanes lanes, int from, int[] in, int[] out,
+                     int[] remaining, int steps);
+    }
+
+    /** The machine states of a batch, as structures of arrays indexed by
+     *  lane.  Lane counts are padded up to a multiple of the kernel width;
+     *  padding lanes use the tables of lane 0 and never move. */
+    static final class Lanes {
+
+        /** The lanes converting with SPECS from CURSORS, padded to a
+         *  multiple of WIDTH. */
+        Lanes(MachineSpec[] specs, MachineCursor[] cursors, int width) {
+            MachineSpec spec0 = specs[0];
+            _size = spec0.alphabet().size();
+            _numRotors = spec0.numRotors();
+            _pawls = spec0.numPawls();
+            _first = spec0.firstMoving();
+            _rotates = new boolean[_numRotors];
+            int padded = (specs.length + width - 1) / width * width;
+            Pool fwd = new Pool(), bwd = new Pool(), notches = new Pool();
+            Pool plugs = new Pool(), plugInvs = new Pool(),
+                cores = new Pool();
+            _pos = new int[_numRotors][padded];
+            _fwdBase = new int[_numRotors][padded];
+            _bwdBase = new int[_numRotors][padded];
+            _notchBase = new int[_numRotors][padded];
+            _plugBase = new int[padded];
+            _coreBase = new int[padded];
+            for (int k = 0; k < _numRotors; k += 1) {
+                _rotates[k] = spec0.slot(k).rotates();
+            }
+            for (int x = 0; x < padded; x += 1) {
+                int lane = x < specs.length ? x : 0;
+                MachineSpec spec = specs[lane];
+                for (int k = 0; k < _numRotors; k += 1) {
+                    Wiring wiring = spec.slot(k);
+                    _fwdBase[k][x] = fwd.add(wiring, wiring.forward());
+                    _bwdBase[k][x] = bwd.add(wiring, wiring.backward());
+                    _notchBase[k][x] =
+                        notches.add(wiring, ints(wiring.notches()));
+                }
+                int[] plug = spec.plugboard();
+                _plugBase[x] = plugs.add(spec, plug);
+                plugInvs.add(spec, inverse(plug));
+                _coreBase[x] = cores.add(cursors[lane].core(),
+                                         cursors[lane].core());
+            }
+            _fwd = fwd.table();
+            _bwd = bwd.table();
+            _notch = notches.table();
+            _plug = plugs.table();
+            _plugInv = plugInvs.table();
+            _core = cores.table();
+        }
+
+        /** Return the size of the alphabet. */
+        int size() {
+            return _size;
+        }
+
+        /** Return the number of slots. */
+        int numRotors() {
+            return _numRotors;
+        }
+
+        /** Return the number of pawls. */
+        int numPawls() {
+            return _pawls;
+        }
+
+        /** Return the index of the leftmost rotating slot. */
+        int firstMoving() {
+            return _first;
+        }
+
+        /** Return true iff slot K rotates. */
+        boolean rotates(int k) {
+            return _rotates[k];
+        }
+
+        /** Return the positions of slot K, indexed by lane. */
+        int[] positions(int k) {
+            return _pos[k];
+        }
+
+        /** Return the offsets in forwardPool() of the forward wirings of
+         *  slot K, indexed by lane. */
+        int[] forwardBase(int k) {
+            return _fwdBase[k];
+        }
+
+        /** Return the offsets in backwardPool() of the backward wirings
+         *  of slot K, indexed by lane. */
+        int[] backwardBase(int k) {
+            return _bwdBase[k];
+        }
+
+        /** Return the offsets in notchPool() of the notch tables of slot
+         *  K, indexed by lane. */
+        int[] notchBase(int k) {
+            return _notchBase[k];
+        }
+
+        /** Return the offsets in plugboardPool() and inversePool() of the
+         *  plugboards, indexed by lane. */
+        int[] plugboardBase() {
+            return _plugBase;
+        }
+
+        /** Return the offsets in corePool() of the composed tables of the
+         *  non-moving slots, indexed by lane. */
+        int[] coreBase() {
+            return _coreBase;
+        }
+
+        /** Return the forward wirings of all lanes' rotors, end to
+         *  end. */
+        int[] forwardPool() {
+            return _fwd;
+        }
+
+        /** Return the backward wirings of all lanes' rotors, end to
+         *  end. */
+        int[] backwardPool() {
+            return _bwd;
+        }
+
+        /** Return the notch tables (1 at a notch, else 0) of all lanes'
+         *  rotors, end to end. */
+        int[] notchPool() {
+            return _notch;
+        }
+
+        /** Return the plugboards of all lanes, end to end. */
+        int[] plugboardPool() {
+            return _plug;
+        }
+
+        /** Return the inverse plugboards of all lanes, end to end. */
+        int[] inversePool() {
+            return _plugInv;
+        }
+
+        /** Return the composed tables of all lanes' non-moving slots, end
+         *  to end. */
+        int[] corePool() {
+            return _core;
+        }
+
+        /** Set the positions of each lane from its cursor in CURSORS. */
+        void load(MachineCursor[] cursors) {
+            for (int x = 0; x < cursors.length; x += 1) {
+                int[] pos = cursors[x].positions();
+                for (int k = 0; k < _numRotors; k += 1) {
+                    _pos[k][x] = pos[k];
+                }
+            }
+        }
+
+        /** Set the moving slots of each cursor in CURSORS from its
+         *  lane. */
+        void store(MachineCursor[] cursors) {
+            for (int x = 0; x < cursors.length; x += 1) {
+                int[] pos = cursors[x].positions();
+                for (int k = _first; k < _numRotors; k += 1) {
+                    pos[k] = _pos[k][x];
+                }
+            }
+        }
+
+        /** Return NOTCHES as 1s and 0s. */
+        private static int[] ints(boolean[] notches) {
+            int[] result = new int[notches.length];
+            for (int x = 0; x < notches.length; x += 1) {
+                result[x] = notches[x] ? 1 : 0;
+            }
+            return result;
+        }
+
+        /** Return the inverse of the permutation TABLE. */
+        private static int[] inverse(int[] table) {
+            int[] result = new int[table.length];
+            for (int x = 0; x < table.length; x += 1) {
+                result[table[x]] = x;
+            }
+            return result;
+        }
+
+        /** Size of the alphabet. */
+        private final int _size;
+
+        /** Number of slots. */
+        private final int _numRotors;
+
+        /** Number of pawls. */
+        private final int _pawls;
+
+        /** Index of the leftmost rotating slot. */
+        private final int _first;
+
+        /** True for each slot whose rotors rotate. */
+        private final boolean[] _rotates;
+
+        /** Position of each slot in each lane. */
+        private final int[][] _pos;
+
+        /** Offsets of each slot's tables in each lane. */
+        private final int[][] _fwdBase, _bwdBase, _notchBase;
+
+        /** Offsets of each lane's plugboard and core tables. */
+        private final int[] _plugBase, _coreBase;
+
+        /** Pooled tables. */
+        private final int[] _fwd, _bwd, _notch, _plug, _plugInv, _core;
+    }
+
+    /** Tables laid end to end, each stored once however many lanes use
+     *  it. */
+    private static final class Pool {
+
+        /** Add TABLE, which belongs to OWNER, unless OWNER's table is
+         *  already present, and return its offset. */
+        int add(Object owner, int[] table) {
+            Integer offset = _offsets.get(owner);
+            if (offset == null) {
+                offset = _length;
+                _offsets.put(owner, offset);
+                if (_length + table.length > _table.length) {
+                    int[] bigger =
+                        new int[Math.max(2 * _table.length,
+                                         _length + table.length)];
+                    System.arraycopy(_table, 0, bigger, 0, _length);
+                    _table = bigger;
+                }
+                System.arraycopy(table, 0, _table, _length, table.length);
+                _length += table.length;
+            }
+            return offset;
+        }
+
+        /** Return the tables added so far, end to end. */
+        int[] table() {
+            int[] result = new int[_length];
+            System.arraycopy(_table, 0, result, 0, _length);
+            return result;
+        }
+
+        /** Offset of each owner's table. */
+        private final Map<Object, Integer> _offsets =
+            new IdentityHashMap<>();
+
+        /** The tables, end to end, followed by unused space. */
+        private int[] _table = new int[64];
+
+        /** Number of used entries of _table. */
+        private int _length;
+    }
+
+    /** A kernel that converts lane by lane with scalar code. */
+    private static final class ScalarKernel implements Kernel {
+
+        @Override
+        public String name() {
+            return "scalar";
+        }
+
+        @Override
+        public int width() {
+            return WIDTH;
+        }
+
+        @Override
+        public void convert(Lanes lanes, int from, int[] in, int[] out,
+                            int[] remaining, int steps) {
+            int size = lanes.size();
+            int n = lanes.numRotors();
+            int first = lanes.firstMoving();
+            int last = n - 1;
+            int low = n - lanes.numPawls() + 1;
+            int[] notch = lanes.notchPool();
+            int[] plug = lanes.plugboardPool();
+            int[] plugInv = lanes.inversePool();
+            int[] core = lanes.corePool();
+            int[] plugBase = lanes.plugboardBase();
+            int[] coreBase = lanes.coreBase();
+            boolean[] carry = new boolean[WIDTH];
+            boolean[] stepped = new boolean[WIDTH];
+            boolean[] next = new boolean[WIDTH];
+            for (int t = 0; t < steps; t += 1) {
+                int[] pos = lanes.positions(last);
+                int[] base = lanes.notchBase(last);
+                for (int j = 0; j < WIDTH; j += 1) {
+                    int i = from + j;
+                    boolean active = t < remaining[j];
+                    carry[j] = notch[base[i] + pos[i]] != 0;
+                    stepped[j] = active && lanes.rotates(last);
+                    if (stepped[j]) {
+                        pos[i] = advance(pos[i], size);
+                    }
+                }
+                for (int x = last; x >= low; x -= 1) {
+                    int[] here = lanes.positions(x);
+                    int[] left = lanes.positions(x - 1);
+                    base = lanes.notchBase(x - 1);
+                    boolean rotates = lanes.rotates(x - 1);
+                    for (int j = 0; j < WIDTH; j += 1) {
+                        int i = from + j;
+                        boolean nextCarry = notch[base[i] + left[i]] != 0;
+                        next[j] = carry[j] && rotates && t < remaining[j];
+                        if (next[j]) {
+                            left[i] = advance(left[i], size);
+                            if (!stepped[j]) {
+                                here[i] = advance(here[i], size);
+                            }
+                        }
+                        stepped[j] = next[j];
+                        carry[j] = nextCarry;
+                    }
+                }
+                for (int j = 0; j < WIDTH; j += 1) {
+                    if (t >= remaining[j]) {
+                        continue;
+                    }
+                    int i = from + j;
+                    int c = plug[plugBase[i] + in[t * WIDTH + j]];
+                    for (int x = last; x >= first; x -= 1) {
+                        c = through(lanes.forwardPool(),
+                                    lanes.forwardBase(x)[i], c,
+                                    lanes.positions(x)[i], size);
+                    }
+                    c = core[coreBase[i] + c];
+                    for (int x = first; x <= last; x += 1) {
+                        c = through(lanes.backwardPool(),
+                                    lanes.backwardBase(x)[i], c,
+                                    lanes.positions(x)[i], size);
+                    }
+                    out[t * WIDTH + j] = plugInv[plugBase[i] + c];
+                }
+            }
+        }
+
+        /** Return position P advanced by one, for an alphabet of size
+         *  SIZE. */
+        private static int advance(int p, int size) {
+            p += 1;
+            return p == size ? 0 : p;
+        }
+
+        /** Return the result of passing C through the wiring at offset
+         *  BASE of POOL, for a rotor at setting POSN and an alphabet of
+         *  size SIZE. */
+        private static int through(int[] pool, int base, int c, int posn,
+                                   int size) {
+            int k = c + posn;
+            if (k >= size) {
+                k -= size;
+            }
+            k = pool[base + k] - posn;
+            return k < 0 ? k + size : k;
+        }
+
+        /** Lanes per block. */
+        private static final int WIDTH = 16;
+    }
+
+    /** Most key presses converted per kernel call. */
+    private static final int TILE = 256;
+
+    /** The kernel used by all BatchConverters. */
+    private static final Kernel KERNEL = loadKernel();
+
+    /** Kernel doing the work. */
+    private final Kernel _kernel;
+
+    /** Common alphabet of the lanes. */
+    private final Alphabet _alphabet;
+
+    /** Cursor of each lane. */
+    private final MachineCursor[] _cursors;
+
+    /** Machine states of the lanes. */
+    private final Lanes _lanes;
+
+    /** Inputs and outputs of one block for one tile, indexed by step
+     *  times the kernel width plus lane. */
+    private final int[] _in, _out;
+
+    /** Number of steps each lane of a block takes in the current
+     *  tile. */
+    private final int[] _remaining;
+}
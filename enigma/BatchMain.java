@@ -0,0 +1,255 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.PrintStream;
+import java.nio.file.DirectoryStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** Many runs of Main in one JVM, so that a batch of jobs pays for JVM
+ *  startup and warm-up once rather than once per job.  Each job converts
+ *  one input file into one output file with one configuration, exactly
+ *  as Main would; the jobs run on a work-stealing pool, each on a single
+ *  thread.  A configuration file used by several jobs is parsed once and
+ *  its rotor library shared, as is one cache of keystreams.  A job that
+ *  fails reports its error and leaves the rest of the batch running.
+ *  @author Abel Yagubyan
+ */
+final class BatchMain {
+
+    /** Run a batch of jobs, as specified by ARGS: either MANIFEST, or
+     *  DIRECTORY OUTDIR.  MANIFEST names a file with a line
+     *  "CONFIG INPUT OUTPUT" per job (blank lines and lines starting with
+     *  # being ignored, and relative names being taken relative to the
+     *  manifest's directory).  Otherwise, there is a job for each file
+     *  F.in in DIRECTORY, which converts it with the configuration F.conf
+     *  if that exists, and otherwise default.conf, into OUTDIR/F.out.
+     *  The pool has the number of threads given by the property
+     *  enigma.jobs (by default, one per processor).  Reports each failed
+     *  job, once all have run, and then the batch's throughput on the
+     *  standard error.  Exits normally if every job succeeds; otherwise
+     *  with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 1 || args.length > 2) {
+                throw error("Usage: java enigma.BatchMain MANIFEST | "
+                            + "DIRECTORY OUTDIR");
+            }
+            Path path = Paths.get(args[0]);
+            List<Job> jobs;
+            if (Files.isDirectory(path)) {
+                if (args.length < 2) {
+                    throw error("A directory of inputs needs an output "
+                                + "directory!");
+                }
+                jobs = directory(path, Paths.get(args[1]));
+            } else {
+                if (args.length > 1) {
+                    throw error("A manifest names its own outputs!");
+                }
+                jobs = manifest(path);
+            }
+            ForkJoinPool pool = new ForkJoinPool(Integer.getInteger(
+                "enigma.jobs", Runtime.getRuntime().availableProcessors()));
+            BatchMain batch = new BatchMain();
+            long start = System.nanoTime();
+            int failed;
+            try {
+                failed = batch.run(pool, jobs, System.err);
+            } finally {
+                pool.shutdown();
+            }
+            double seconds = (System.nanoTime() - start) / 1e9;
+            System.err.printf("enigma batch: %d jobs, %d failed, "
+                              + "%d configurations, %d characters in "
+                              + "%.2fs (%.1f characters/s)%n",
+                              jobs.size(), failed, batch.configurations(),
+                              batch.characters(), seconds,
+                              batch.characters() / seconds);
+            if (failed == 0) {
+                return;
+            }
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A conversion of one input file into one output file. */
+    static final class Job {
+
+        /** A job converting the file INPUT into the file OUTPUT with the
+         *  configuration file CONFIG. */
+        Job(String config, String input, String output) {
+            _config = config;
+            _input = input;
+            _output = output;
+        }
+
+        /** Return the name of my configuration file. */
+        String config() {
+            return _config;
+        }
+
+        /** Return the name of my input file. */
+        String input() {
+            return _input;
+        }
+
+        /** Return the name of my output file. */
+        String output() {
+            return _output;
+        }
+
+        @Override
+        public String toString() {
+            return _input;
+        }
+
+        /** Configuration file name. */
+        private final String _config;
+
+        /** Input file name. */
+        private final String _input;
+
+        /** Output file name. */
+        private final String _output;
+    }
+
+    /** Return the jobs listed in the manifest file PATH. */
+    static List<Job> manifest(Path path) {
+        List<Job> result = new ArrayList<>();
+        Path dir = path.toAbsolutePath().getParent();
+        try (BufferedReader in = Files.newBufferedReader(path)) {
+            int number = 0;
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                number += 1;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                String[] fields = line.split("\\s+");
+                if (fields.length != 3) {
+                    throw error("Line %d of %s must name a configuration, "
+                                + "an input and an output!", number, path);
+                }
+                result.add(new Job(dir.resolve(fields[0]).toString(),
+                                   dir.resolve(fields[1]).toString(),
+                                   dir.resolve(fields[2]).toString()));
+            }
+        } catch (IOException excp) {
+            throw error("could not read %s", path);
+        }
+        return result;
+    }
+
+    /** Return a job for each file F.in in DIR, converting it with F.conf
+     *  or DIR/default.conf into OUTDIR/F.out, which is created if
+     *  need be. */
+    static List<Job> directory(Path dir, Path outDir) {
+        List<Job> result = new ArrayList<>();
+        try (DirectoryStream<Path> inputs =
+                 Files.newDirectoryStream(dir, "*.in")) {
+            Files.createDirectories(outDir);
+            List<Path> sorted = new ArrayList<>();
+            inputs.forEach(sorted::add);
+            Collections.sort(sorted);
+            for (Path input : sorted) {
+                String name = input.getFileName().toString();
+                String base = name.substring(0, name.length() - 3);
+                Path config = dir.resolve(base + ".conf");
+                if (!Files.exists(config)) {
+                    config = dir.resolve(DEFAULT_CONFIG);
+                }
+                result.add(new Job(config.toString(), input.toString(),
+                                   outDir.resolve(base + ".out").toString()));
+            }
+        } catch (IOException excp) {
+            throw error("could not list %s into %s", dir, outDir);
+        }
+        if (result.isEmpty()) {
+            throw error("There are no .in files in %s", dir);
+        }
+        return result;
+    }
+
+    /** Run JOBS on the threads of POOL, reporting each that fails on
+     *  ERR, and return the number that failed. */
+    int run(ForkJoinPool pool, List<Job> jobs, PrintStream err) {
+        List<Callable<Long>> tasks = new ArrayList<>();
+        for (Job job : jobs) {
+            tasks.add(() -> run(job));
+        }
+        List<Future<Long>> results = pool.invokeAll(tasks);
+        int failed = 0;
+        for (int x = 0; x < results.size(); x += 1) {
+            try {
+                _characters += results.get(x).get();
+            } catch (ExecutionException excp) {
+                Throwable cause = excp.getCause();
+                err.printf("Error: %s: %s%n", jobs.get(x),
+                           cause instanceof EnigmaException
+                           ? cause.getMessage() : cause);
+                failed += 1;
+            } catch (InterruptedException excp) {
+                Thread.currentThread().interrupt();
+                throw error("The batch was interrupted");
+            }
+        }
+        return failed;
+    }
+
+    /** Run JOB, returning the number of characters it converted. */
+    long run(Job job) {
+        Main main = new Main(library(job.config()), _keystreams,
+                             job.input(), job.output());
+        main.process();
+        return main.converted();
+    }
+
+    /** Return the number of characters converted by the jobs run so
+     *  far. */
+    long characters() {
+        return _characters;
+    }
+
+    /** Return the number of configuration files read so far. */
+    int configurations() {
+        return _libraries.size();
+    }
+
+    /** Return the rotor library of the configuration file NAME, reading
+     *  it only if no job has yet. */
+    private RotorLibrary library(String name) {
+        String key = Paths.get(name).toAbsolutePath().normalize().toString();
+        return _libraries.computeIfAbsent(key, k -> Main.loadLibrary(name));
+    }
+
+    /** Configuration used for inputs that have none of their own. */
+    private static final String DEFAULT_CONFIG = "default.conf";
+
+    /** The rotor library of each configuration file read, by absolute
+     *  name. */
+    private final ConcurrentHashMap<String, RotorLibrary> _libraries =
+        new ConcurrentHashMap<>();
+
+    /** Keystreams shared by all jobs. */
+    private final KeystreamCache _keystreams =
+        new KeystreamCache(Main.KEYSTREAM_BUDGET, Main.KEYSTREAM_WINDOW);
+
+    /** Number of characters converted. */
+    private long _characters;
+}
@@ -0,0 +1,484 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A Turing-Welchman bombe: a known-plaintext (crib) attack on messages
+ *  enciphered by the machines of a RotorLibrary.  The crib and the
+ *  ciphertext it lies under are turned into a menu, a graph on the
+ *  letters whose edges are labelled with the crib positions linking
+ *  them.  For every rotor order and start position, each hypothesis for
+ *  the plugboard partner of a menu's test letter is propagated along the
+ *  menu's edges, and rejected at the first contradiction.  Positions at
+ *  which some hypothesis survives for every part of the menu are stops,
+ *  reported as settings lines.  The keyspace is spread over a
+ *  ForkJoinPool, one task per rotor order and setting of the non-moving
+ *  rotors.
+ *  @author Abel Yagubyan
+ */
+final class Bombe {
+
+    /** Run a bombe, as specified by ARGS:
+     *  CONFIG CIPHERTEXT CRIB OFFSET [ROTOR ...].  CONFIG names a
+     *  configuration file and CIPHERTEXT a file containing one message
+     *  (whitespace is ignored).  CRIB is plaintext known to encipher to
+     *  the ciphertext starting at character OFFSET (numbering from 0).
+     *  When ROTORs are given (the reflector first), only that rotor order
+     *  is searched.  Prints one settings line per stop. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 4) {
+                throw error("Usage: java enigma.Bombe CONFIG CIPHERTEXT "
+                            + "CRIB OFFSET [ROTOR ...]");
+            }
+            RotorLibrary library = Main.loadLibrary(args[0]);
+            String text;
+            try {
+                text = new String(Files.readAllBytes(Paths.get(args[1])));
+            } catch (IOException excp) {
+                throw error("could not open %s", args[1]);
+            }
+            int offset;
+            try {
+                offset = Integer.parseInt(args[3]);
+            } catch (NumberFormatException excp) {
+                throw error("The offset must be an integer!");
+            }
+            Bombe bombe = new Bombe(library, text.replaceAll("\\s+", ""),
+                                    args[2], offset);
+            if (args.length > 4) {
+                bombe.restrictTo(Arrays.copyOfRange(args, 4, args.length));
+            }
+            for (Stop stop : bombe.search(ForkJoinPool.commonPool(),
+                                          DEFAULT_LIMIT)) {
+                System.out.println(stop);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A bombe for the machines of LIBRARY, given that CRIB enciphers to
+     *  the characters of CIPHERTEXT starting at OFFSET. */
+    Bombe(RotorLibrary library, String ciphertext, String crib, int offset) {
+        Alphabet alpha = library.alphabet();
+        if (crib.isEmpty() || offset < 0
+                || offset + crib.length() > ciphertext.length()) {
+            throw error("The crib doesn't fit in the ciphertext!");
+        }
+        _library = library;
+        _size = alpha.size();
+        _offset = offset;
+        _length = crib.length();
+        int[] plain = new int[_length];
+        int[] cipher = new int[_length];
+        for (int x = 0; x < _length; x += 1) {
+            char p = crib.charAt(x), c = ciphertext.charAt(offset + x);
+            if (!alpha.contains(p) || !alpha.contains(c)) {
+                throw error("The value isn't part of the alphabet!");
+            }
+            if (p == c) {
+                throw error("The crib can't be at offset %d: %c would "
+                            + "encipher to itself.", offset, p);
+            }
+            plain[x] = alpha.toInt(p);
+            cipher[x] = alpha.toInt(c);
+        }
+        buildMenu(plain, cipher);
+        _orders = library.orders();
+    }
+
+    /** Search only the rotor order NAMES (NAMES[0] naming the
+     *  reflector). */
+    void restrictTo(String[] names) {
+        _library.spec(names, Cycles.parse("", _library.alphabet()));
+        String[] order = new String[names.length];
+        for (int x = 0; x < names.length; x += 1) {
+            order[x] = names[x].toUpperCase();
+        }
+        _orders = Collections.singletonList(order);
+    }
+
+    /** Return the first LIMIT stops (in order of rotor order, then start
+     *  position), searching with the threads of POOL. */
+    List<Stop> search(ForkJoinPool pool, int limit) {
+        int numRotors = _library.numRotors();
+        int fixedSlots = numRotors - _library.numPawls() - 1;
+        long fixedCombos = power(_size, fixedSlots);
+        MachineSpec[] specs = new MachineSpec[_orders.size()];
+        int[] plain = Cycles.parse("", _library.alphabet());
+        for (int x = 0; x < specs.length; x += 1) {
+            specs[x] = _library.spec(_orders.get(x), plain);
+        }
+        return pool.invoke(new Search(specs, fixedCombos, 0,
+                                      specs.length * fixedCombos, limit));
+    }
+
+    /** A candidate setting found by the search. */
+    final class Stop {
+
+        /** A stop for the rotors named ORDER at start positions START,
+         *  with plugboard partners STECKER (-1 where undetermined). */
+        private Stop(String[] order, int[] start, int[] stecker) {
+            _order = order;
+            _start = start;
+            _stecker = stecker;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] order() {
+            return _order.clone();
+        }
+
+        /** Return my start position of slot K. */
+        int start(int k) {
+            return _start[k];
+        }
+
+        /** Return the plugboard partner of letter K, or -1 if the menu
+         *  did not determine it. */
+        int stecker(int k) {
+            return _stecker[k];
+        }
+
+        /** Return me as a settings line, as accepted by Main. */
+        @Override
+        public String toString() {
+            Alphabet alpha = _library.alphabet();
+            StringBuilder result = new StringBuilder("*");
+            for (String name : _order) {
+                result.append(' ').append(name);
+            }
+            result.append(' ');
+            for (int x = 1; x < _start.length; x += 1) {
+                result.append(_library.settingChar(_start[x]));
+            }
+            for (int x = 0; x < _stecker.length; x += 1) {
+                if (_stecker[x] > x) {
+                    result.append(" (").append(alpha.toChar(x))
+                        .append(alpha.toChar(_stecker[x])).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Rotor names, reflector first. */
+        private final String[] _order;
+
+        /** Start position of each slot. */
+        private final int[] _start;
+
+        /** Plugboard partner of each letter, or -1. */
+        private final int[] _stecker;
+    }
+
+    /** Build the menu linking PLAIN[K] and CIPHER[K] for each crib
+     *  position K, and choose a test letter for each of its connected
+     *  components. */
+    private void buildMenu(int[] plain, int[] cipher) {
+        int[] degree = new int[_size];
+        for (int x = 0; x < _length; x += 1) {
+            degree[plain[x]] += 1;
+            degree[cipher[x]] += 1;
+        }
+        _edgeStart = new int[_size + 1];
+        for (int x = 0; x < _size; x += 1) {
+            _edgeStart[x + 1] = _edgeStart[x] + degree[x];
+        }
+        _edgeOther = new int[2 * _length];
+        _edgeIndex = new int[2 * _length];
+        int[] fill = Arrays.copyOf(_edgeStart, _size);
+        for (int x = 0; x < _length; x += 1) {
+            _edgeOther[fill[plain[x]]] = cipher[x];
+            _edgeIndex[fill[plain[x]]] = x;
+            fill[plain[x]] += 1;
+            _edgeOther[fill[cipher[x]]] = plain[x];
+            _edgeIndex[fill[cipher[x]]] = x;
+            fill[cipher[x]] += 1;
+        }
+        boolean[] seen = new boolean[_size];
+        List<Integer> tests = new ArrayList<>();
+        int[] stack = new int[_size];
+        for (int x = 0; x < _size; x += 1) {
+            if (degree[x] == 0 || seen[x]) {
+                continue;
+            }
+            int best = x, top = 0;
+            stack[top++] = x;
+            seen[x] = true;
+            while (top > 0) {
+                int letter = stack[--top];
+                if (degree[letter] > degree[best]) {
+                    best = letter;
+                }
+                for (int e = _edgeStart[letter]; e < _edgeStart[letter + 1];
+                     e += 1) {
+                    if (!seen[_edgeOther[e]]) {
+                        seen[_edgeOther[e]] = true;
+                        stack[top++] = _edgeOther[e];
+                    }
+                }
+            }
+            tests.add(best);
+        }
+        tests.sort((a, b) -> degree[b] - degree[a]);
+        _tests = tests.stream().mapToInt(Integer::intValue).toArray();
+    }
+
+    /** Return BASE**EXP. */
+    private static long power(int base, int exp) {
+        long result = 1;
+        for (int x = 0; x < exp; x += 1) {
+            result *= base;
+        }
+        return result;
+    }
+
+    /** A task searching the units LO .. HI - 1 of the keyspace: unit U is
+     *  rotor order U / FIXEDCOMBOS with its non-moving rotors at setting
+     *  U % FIXEDCOMBOS. */
+    private final class Search extends RecursiveTask<List<Stop>> {
+
+        /** Search units LO .. HI - 1 of SPECS, which have FIXEDCOMBOS
+         *  settings of their non-moving rotors, keeping at most LIMIT
+         *  stops. */
+        Search(MachineSpec[] specs, long fixedCombos, long lo, long hi,
+               int limit) {
+            _specs = specs;
+            _fixedCombos = fixedCombos;
+            _lo = lo;
+            _hi = hi;
+            _limit = limit;
+        }
+
+        @Override
+        protected List<Stop> compute() {
+            if (_hi - _lo > 1) {
+                long mid = (_lo + _hi) >>> 1;
+                Search left = new Search(_specs, _fixedCombos, _lo, mid,
+                                         _limit);
+                left.fork();
+                List<Stop> result = new ArrayList<>(
+                    new Search(_specs, _fixedCombos, mid, _hi,
+                               _limit).compute());
+                result.addAll(0, left.join());
+                return result.size() > _limit
+                    ? new ArrayList<>(result.subList(0, _limit)) : result;
+            }
+            int order = (int) (_lo / _fixedCombos);
+            return new Unit(_specs[order], _orders.get(order),
+                            _lo % _fixedCombos).run(_limit);
+        }
+
+        /** Configurations of each rotor order. */
+        private final MachineSpec[] _specs;
+
+        /** Number of settings of the non-moving rotors. */
+        private final long _fixedCombos;
+
+        /** Range of units to search. */
+        private final long _lo, _hi;
+
+        /** Most stops to keep. */
+        private final int _limit;
+    }
+
+    /** The search of all start positions of the moving rotors for one
+     *  rotor order and setting of its non-moving rotors, with the scratch
+     *  space it needs. */
+    private final class Unit {
+
+        /** A unit for the machine SPEC holding the rotors named ORDER, its
+         *  non-moving rotors having the settings encoded in FIXED. */
+        Unit(MachineSpec spec, String[] order, long fixed) {
+            _spec = spec;
+            _order = order;
+            int numRotors = spec.numRotors();
+            _movingFrom = numRotors - spec.numPawls();
+            _settings = new int[numRotors];
+            for (int x = _movingFrom - 1; x >= 1; x -= 1) {
+                _settings[x] = (int) (fixed % _size);
+                fixed /= _size;
+            }
+            _cursors = new MachineCursor[_length];
+            MachineCursor base = spec.cursor(_settings);
+            for (int x = 0; x < _length; x += 1) {
+                _cursors[x] = base.copy();
+            }
+            _stecker = new int[_size];
+            Arrays.fill(_stecker, -1);
+            _trail = new int[_size];
+            _queue = new int[_size];
+        }
+
+        /** Return the stops in this unit, at most LIMIT of them. */
+        List<Stop> run(int limit) {
+            List<Stop> result = new ArrayList<>();
+            long combos = power(_size, _settings.length - _movingFrom);
+            for (long c = 0; c < combos && result.size() < limit; c += 1) {
+                long rest = c;
+                for (int x = _settings.length - 1; x >= _movingFrom; x -= 1) {
+                    _settings[x] = (int) (rest % _size);
+                    rest /= _size;
+                }
+                int[] pos = _cursors[0].positions();
+                System.arraycopy(_settings, 0, pos, 0, pos.length);
+                _spec.advanceBy(_cursors[0], _offset + 1);
+                for (int x = 1; x < _length; x += 1) {
+                    System.arraycopy(pos, 0, _cursors[x].positions(), 0,
+                                     pos.length);
+                    _spec.step(_cursors[x]);
+                    pos = _cursors[x].positions();
+                }
+                if (solve(0)) {
+                    result.add(new Stop(_order, _settings.clone(),
+                                        _stecker.clone()));
+                }
+                undo(0);
+            }
+            return result;
+        }
+
+        /** Return true iff the menu components K and above can be given
+         *  consistent plugboard partners, leaving them in _stecker. */
+        private boolean solve(int k) {
+            if (k == _tests.length) {
+                return true;
+            }
+            int letter = _tests[k];
+            if (_stecker[letter] != -1) {
+                return solve(k + 1);
+            }
+            for (int h = 0; h < _size; h += 1) {
+                int mark = _trailSize;
+                if (assign(letter, h) && propagate() && solve(k + 1)) {
+                    return true;
+                }
+                undo(mark);
+            }
+            return false;
+        }
+
+        /** Record that A and B are plugboard partners, returning false if
+         *  that contradicts what is already known. */
+        private boolean assign(int a, int b) {
+            if (_stecker[a] == b) {
+                return true;
+            }
+            if (_stecker[a] != -1 || (_stecker[b] != -1 && _stecker[b] != a)) {
+                return false;
+            }
+            _stecker[a] = b;
+            _trail[_trailSize++] = a;
+            _queue[_queueSize++] = a;
+            if (a != b) {
+                _stecker[b] = a;
+                _trail[_trailSize++] = b;
+                _queue[_queueSize++] = b;
+            }
+            return true;
+        }
+
+        /** Follow the menu from every newly assigned letter, returning
+         *  false at the first contradiction. */
+        private boolean propagate() {
+            while (_queueSize > 0) {
+                int letter = _queue[--_queueSize];
+                int partner = _stecker[letter];
+                for (int e = _edgeStart[letter]; e < _edgeStart[letter + 1];
+                     e += 1) {
+                    int image = _spec.substitute(_cursors[_edgeIndex[e]],
+                                                 partner);
+                    if (!assign(_edgeOther[e], image)) {
+                        _queueSize = 0;
+                        return false;
+                    }
+                }
+            }
+            return true;
+        }
+
+        /** Forget every assignment made since the trail had length
+         *  MARK. */
+        private void undo(int mark) {
+            while (_trailSize > mark) {
+                _trailSize -= 1;
+                _stecker[_trail[_trailSize]] = -1;
+            }
+        }
+
+        /** Configuration being searched. */
+        private final MachineSpec _spec;
+
+        /** Names of its rotors. */
+        private final String[] _order;
+
+        /** Index of its leftmost slot with a pawl. */
+        private final int _movingFrom;
+
+        /** Start position of each slot for the current candidate. */
+        private final int[] _settings;
+
+        /** Entry K holds the positions at which crib character K is
+         *  enciphered. */
+        private final MachineCursor[] _cursors;
+
+        /** Plugboard partner of each letter, or -1 if not yet known. */
+        private final int[] _stecker;
+
+        /** Letters assigned so far, in order. */
+        private final int[] _trail;
+
+        /** Number of entries in _trail. */
+        private int _trailSize;
+
+        /** Letters whose menu edges are still to be followed. */
+        private final int[] _queue;
+
+        /** Number of entries in _queue. */
+        private int _queueSize;
+    }
+
+    /** Most stops printed by main. */
+    static final int DEFAULT_LIMIT = 1000;
+
+    /** The machines under attack. */
+    private final RotorLibrary _library;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Position of the crib in the ciphertext. */
+    private final int _offset;
+
+    /** Length of the crib. */
+    private final int _length;
+
+    /** Rotor orders to search. */
+    private List<String[]> _orders;
+
+    /** The menu, in compressed adjacency form: the edges of letter K are
+     *  those with indices _edgeStart[K] .. _edgeStart[K + 1] - 1. */
+    private int[] _edgeStart;
+
+    /** Letter at the far end of each edge. */
+    private int[] _edgeOther;
+
+    /** Crib position labelling each edge. */
+    private int[] _edgeIndex;
+
+    /** Test letter of each connected component of the menu, most
+     *  connected first. */
+    private int[] _tests;
+}
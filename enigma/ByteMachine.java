@@ -0,0 +1,252 @@
+package enigma;
+
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** An Enigma machine over the 256 byte values, for scrambling binary
+ *  data.  Its configuration's alphabet must consist of exactly the
+ *  characters \x00 through \xFF (in any order), which configuration
+ *  files and settings lines write as Escapes, e.g. the alphabet line
+ *  "\x00-\xFF"; byte B is then the character (char) B.  Bytes are
+ *  converted with the same stepping and substitution as characters are
+ *  by Main, but are streamed from channel to channel through one direct
+ *  buffer, with no decoding, line splitting or grouping, or through
+ *  channels that convert what passes through them.
+ *  @author Abel Yagubyan
+ */
+final class ByteMachine {
+
+    /** Convert the bytes of the file ARGS[1] into the file ARGS[2] with
+     *  the machine described by the configuration ARGS[0] and set up by
+     *  the settings line formed by the remaining ARGS.  An input or
+     *  output file named "-" is the standard input or output.  Exits
+     *  normally if there are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 4) {
+                throw error("Usage: java enigma.ByteMachine CONFIG INPUT "
+                            + "OUTPUT SETTINGS...");
+            }
+            RotorLibrary library = Main.loadLibrary(args[0]);
+            SettingsLine line = new SettingsLine(
+                String.join(" ", Arrays.copyOfRange(args, 3, args.length)));
+            MachineSpec spec = line.spec(library);
+            ByteMachine machine =
+                new ByteMachine(spec, line.cursor(spec, library));
+            try (ReadableByteChannel in = input(args[1]);
+                 WritableByteChannel out = output(args[2])) {
+                machine.convert(in, out);
+            } catch (IOException excp) {
+                throw error("could not convert %s into %s: %s", args[1],
+                            args[2], excp.getMessage());
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A machine converting with SPEC from CURSOR, which it advances.
+     *  SPEC's alphabet must be the 256 byte values. */
+    ByteMachine(MachineSpec spec, MachineCursor cursor) {
+        Alphabet alpha = spec.alphabet();
+        if (alpha.size() != BYTES) {
+            throw error("Byte mode needs an alphabet of all %d bytes!",
+                        BYTES);
+        }
+        _spec = spec;
+        _cursor = cursor;
+        _index = new int[BYTES];
+        _symbol = new byte[BYTES];
+        for (int b = 0; b < BYTES; b += 1) {
+            if (!alpha.contains((char) b)) {
+                throw error("Byte mode needs an alphabet of all %d bytes!",
+                            BYTES);
+            }
+            _index[b] = alpha.toInt((char) b);
+            _symbol[_index[b]] = (byte) b;
+        }
+    }
+
+    /** Convert the bytes of BUF between its position and limit in place,
+     *  leaving its position and limit unchanged. */
+    void convert(ByteBuffer buf) {
+        for (int x = buf.position(); x < buf.limit(); x += 1) {
+            buf.put(x, _symbol[_spec.convert(_cursor,
+                                             _index[buf.get(x) & 0xff])]);
+        }
+    }
+
+    /** Convert everything that IN delivers until end of stream, writing
+     *  the results to OUT.  Return the number of bytes converted. */
+    long convert(ReadableByteChannel in, WritableByteChannel out)
+        throws IOException {
+        Metrics metrics = Metrics.current();
+        long start = metrics.start(Metrics.Stage.MESSAGE);
+        ByteBuffer buf = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        long total = 0;
+        while (in.read(buf) != -1) {
+            buf.flip();
+            convert(buf);
+            total += buf.remaining();
+            while (buf.hasRemaining()) {
+                out.write(buf);
+            }
+            buf.clear();
+        }
+        metrics.end(Metrics.Stage.MESSAGE, start, total);
+        metrics.count(Metrics.Counter.MESSAGES, 1);
+        metrics.count(Metrics.Counter.CHARACTERS, total);
+        return total;
+    }
+
+    /** Return a channel whose reads deliver the conversion of what IN
+     *  delivers, advancing me.  Closing it closes IN. */
+    ReadableByteChannel reading(ReadableByteChannel in) {
+        return new Reading(in);
+    }
+
+    /** Return a channel that writes the conversion of what is written to
+     *  it to OUT, which must be in blocking mode, advancing me.  Each
+     *  write converts and writes all that it is given.  Closing it
+     *  closes OUT. */
+    WritableByteChannel writing(WritableByteChannel out) {
+        return new Writing(out);
+    }
+
+    /** A channel converting what it reads. */
+    private final class Reading implements ReadableByteChannel {
+
+        /** A channel converting what it reads from IN. */
+        Reading(ReadableByteChannel in) {
+            _in = in;
+        }
+
+        @Override
+        public int read(ByteBuffer dst) throws IOException {
+            int start = dst.position();
+            int n = _in.read(dst);
+            if (n > 0) {
+                ByteBuffer read = dst.duplicate();
+                read.position(start).limit(start + n);
+                convert(read);
+            }
+            return n;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return _in.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _in.close();
+        }
+
+        /** Source of the bytes. */
+        private final ReadableByteChannel _in;
+    }
+
+    /** A channel converting what it writes. */
+    private final class Writing implements WritableByteChannel {
+
+        /** A channel converting what it writes to OUT. */
+        Writing(WritableByteChannel out) {
+            _out = out;
+            _buffer = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        }
+
+        @Override
+        public int write(ByteBuffer src) throws IOException {
+            int total = src.remaining();
+            while (src.hasRemaining()) {
+                int n = Math.min(src.remaining(), _buffer.capacity());
+                ByteBuffer chunk = src.duplicate();
+                chunk.limit(chunk.position() + n);
+                _buffer.clear();
+                _buffer.put(chunk).flip();
+                convert(_buffer);
+                while (_buffer.hasRemaining()) {
+                    _out.write(_buffer);
+                }
+                src.position(src.position() + n);
+            }
+            return total;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return _out.isOpen();
+        }
+
+        @Override
+        public void close() throws IOException {
+            _out.close();
+        }
+
+        /** Destination of the bytes. */
+        private final WritableByteChannel _out;
+
+        /** Buffer through which bytes are converted. */
+        private final ByteBuffer _buffer;
+    }
+
+    /** Return a channel reading the file NAME, or the standard input if
+     *  NAME is "-". */
+    private static ReadableByteChannel input(String name) {
+        if (name.equals("-")) {
+            return new FileInputStream(FileDescriptor.in).getChannel();
+        }
+        try {
+            return FileChannel.open(Paths.get(name));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a channel writing the file NAME, or the standard output if
+     *  NAME is "-". */
+    private static WritableByteChannel output(String name) {
+        if (name.equals("-")) {
+            return new FileOutputStream(FileDescriptor.out).getChannel();
+        }
+        try {
+            return FileChannel.open(Paths.get(name),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Number of byte values. */
+    static final int BYTES = 256;
+
+    /** Size of the buffer through which bytes are streamed. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Configuration of the machine. */
+    private final MachineSpec _spec;
+
+    /** Rotor positions of the machine. */
+    private final MachineCursor _cursor;
+
+    /** Alphabet index of each byte value. */
+    private final int[] _index;
+
+    /** Byte value of each alphabet index. */
+    private final byte[] _symbol;
+}
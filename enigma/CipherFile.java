@@ -0,0 +1,250 @@
+package enigma;
+
+import java.io.Closeable;
+import java.io.FileDescriptor;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.CharBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.IllegalCharsetNameException;
+import java.nio.charset.StandardCharsets;
+import java.nio.charset.UnsupportedCharsetException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Objects;
+
+import static enigma.EnigmaException.*;
+
+/** A file holding one long message, opened for random-access conversion.
+ *  The file must contain nothing but the message's characters, in a
+ *  charset with a fixed number of bytes per character (such as
+ *  ISO-8859-1, US-ASCII, UTF-16BE or UTF-16LE), so that character K of
+ *  the message starts at byte K times that width.  Converting a range
+ *  moves a cursor at the start of the message straight to the range's
+ *  offset with MachineSpec.advanceBy, which skips whole revolutions of
+ *  the rotors rather than stepping through them, and then maps and
+ *  converts only the bytes of the range.  A CipherFile never changes
+ *  after it is opened, so any number of threads may read from it at
+ *  once.
+ *  @author Abel Yagubyan
+ */
+final class CipherFile implements Closeable {
+
+    /** Convert LENGTH characters of the message in the file ARGS[1],
+     *  starting at character ARGS[2], with the machine described by the
+     *  configuration ARGS[0] and set up by the settings line formed by
+     *  the remaining ARGS, and print the result grouped as Main groups
+     *  its output.  The file's charset is given by the property
+     *  enigma.charset (ISO-8859-1 by default).  Exits normally if there
+     *  are no errors; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 5) {
+                throw error("Usage: java enigma.CipherFile CONFIG FILE "
+                            + "OFFSET LENGTH SETTINGS...");
+            }
+            long offset, length;
+            try {
+                offset = Long.parseLong(args[2]);
+                length = Long.parseLong(args[3]);
+            } catch (NumberFormatException excp) {
+                throw error("OFFSET and LENGTH must be integers");
+            }
+            RotorLibrary library = Main.loadLibrary(args[0]);
+            SettingsLine line = new SettingsLine(
+                String.join(" ", Arrays.copyOfRange(args, 4, args.length)));
+            MachineSpec spec = line.spec(library);
+            String charset = System.getProperty("enigma.charset",
+                                                DEFAULT_CHARSET.name());
+            try (CipherFile file = new CipherFile(Paths.get(args[1]),
+                                                  charset(charset))) {
+                file.print(spec, line.cursor(spec, library), offset,
+                           length);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** The message in the file at PATH, in CHARSET, which must encode
+     *  every character in the same number of bytes. */
+    CipherFile(Path path, Charset charset) {
+        CharsetEncoder encoder = charset.newEncoder();
+        float width = encoder.maxBytesPerChar();
+        if (width != encoder.averageBytesPerChar()
+            || (width != 1 && width != 2)) {
+            throw error("%s doesn't have fixed-width characters", charset);
+        }
+        _charset = charset;
+        _width = (int) width;
+        try {
+            _channel = FileChannel.open(path);
+        } catch (IOException excp) {
+            throw error("could not open %s", path);
+        }
+        _path = path;
+    }
+
+    /** The message in the file at PATH, in ISO-8859-1. */
+    CipherFile(Path path) {
+        this(path, DEFAULT_CHARSET);
+    }
+
+    /** Return the number of characters in my message. */
+    long length() {
+        try {
+            return _channel.size() / _width;
+        } catch (IOException excp) {
+            throw error("could not read %s", _path);
+        }
+    }
+
+    /** Return the conversion of the LENGTH characters of my message that
+     *  start at character OFFSET, SETTINGS being the settings line of
+     *  the whole message and LIBRARY holding its rotors. */
+    String decryptRange(RotorLibrary library, String settings, long offset,
+                        int length) {
+        SettingsLine line = new SettingsLine(settings);
+        MachineSpec spec = line.spec(library);
+        return decryptRange(spec, line.cursor(spec, library), offset,
+                            length);
+    }
+
+    /** Return the conversion of the LENGTH characters of my message that
+     *  start at character OFFSET, the whole message having been
+     *  converted with SPEC from START.  START does not move. */
+    String decryptRange(MachineSpec spec, MachineCursor start, long offset,
+                        int length) {
+        char[] result = new char[length];
+        convert(spec, start, offset, result, 0, length);
+        return new String(result);
+    }
+
+    /** Convert the LEN characters of my message that start at character
+     *  OFFSET into OUT, starting at OUTOFF, the whole message having
+     *  been converted with SPEC from START.  START does not move. */
+    void convert(MachineSpec spec, MachineCursor start, long offset,
+                 char[] out, int outOff, int len) {
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        checkRange(offset, len);
+        MachineCursor cursor = start.copy();
+        spec.advanceBy(cursor, offset);
+        convertAt(spec, cursor, offset, out, outOff, len);
+    }
+
+    /** Return the Charset named NAME. */
+    static Charset charset(String name) {
+        try {
+            return Charset.forName(name);
+        } catch (IllegalCharsetNameException
+                 | UnsupportedCharsetException excp) {
+            throw error("There is no charset named %s", name);
+        }
+    }
+
+    @Override
+    public void close() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            throw error("could not close %s", _path);
+        }
+    }
+
+    /** Print the LENGTH characters of my message that start at character
+     *  OFFSET, converted with SPEC from START, on the standard output in
+     *  groups, converting CHUNK characters at a time. */
+    private void print(MachineSpec spec, MachineCursor start, long offset,
+                       long length) {
+        checkRange(offset, length);
+        GroupFormatter format = new GroupFormatter(
+            Integer.getInteger("enigma.group", GroupFormatter.DEFAULT_GROUP),
+            System.getProperty("enigma.separator",
+                               GroupFormatter.DEFAULT_SEPARATOR));
+        MessageOutput output = new MessageOutput(
+            new FileOutputStream(FileDescriptor.out).getChannel());
+        char[] buffer = new char[(int) Math.min(CHUNK, length)];
+        char[] formatted = new char[format.maxLength(buffer.length)];
+        MachineCursor cursor = start.copy();
+        spec.advanceBy(cursor, offset);
+        format.startLine();
+        for (long done = 0; done < length; done += buffer.length) {
+            int n = (int) Math.min(buffer.length, length - done);
+            convertAt(spec, cursor, offset + done, buffer, 0, n);
+            output.write(formatted, 0,
+                         format.format(buffer, 0, n, formatted, 0));
+        }
+        output.newLine();
+        output.flush();
+    }
+
+    /** Convert the LEN characters of my message that start at character
+     *  OFFSET into OUT, starting at OUTOFF, with SPEC from CURSOR, which
+     *  must be where the whole message's cursor is after OFFSET
+     *  characters.  CURSOR advances past them. */
+    private void convertAt(MachineSpec spec, MachineCursor cursor,
+                           long offset, char[] out, int outOff, int len) {
+        Metrics metrics = Metrics.current();
+        long start = metrics.start(Metrics.Stage.MESSAGE);
+        for (int done = 0; done < len; done += CHUNK) {
+            int n = Math.min(CHUNK, len - done);
+            read(offset + done, out, outOff + done, n);
+            spec.convert(cursor, out, outOff + done, n, out, outOff + done);
+        }
+        metrics.end(Metrics.Stage.MESSAGE, start, len);
+        metrics.count(Metrics.Counter.CHARACTERS, len);
+    }
+
+    /** Decode the LEN characters of my message that start at character
+     *  OFFSET into OUT, starting at OUTOFF. */
+    private void read(long offset, char[] out, int outOff, int len) {
+        MappedByteBuffer bytes;
+        try {
+            bytes = _channel.map(FileChannel.MapMode.READ_ONLY,
+                                 offset * _width, (long) len * _width);
+        } catch (IOException excp) {
+            throw error("could not read %s", _path);
+        }
+        CharsetDecoder decoder = _charset.newDecoder();
+        CharBuffer chars = CharBuffer.wrap(out, outOff, len);
+        CoderResult result = decoder.decode(bytes, chars, true);
+        if (result.isError() || decoder.flush(chars).isError()
+            || chars.hasRemaining()) {
+            throw error("%s isn't valid %s", _path, _charset);
+        }
+    }
+
+    /** Check that the LENGTH characters starting at character OFFSET are
+     *  all in my message. */
+    private void checkRange(long offset, long length) {
+        if (offset < 0 || length < 0 || offset > length() - length) {
+            throw error("The range isn't part of the message!");
+        }
+    }
+
+    /** Charset of files when none is given. */
+    static final Charset DEFAULT_CHARSET = StandardCharsets.ISO_8859_1;
+
+    /** Most characters mapped and converted at once. */
+    private static final int CHUNK = 1 << 20;
+
+    /** Charset of the file. */
+    private final Charset _charset;
+
+    /** Number of bytes per character. */
+    private final int _width;
+
+    /** Path of the file. */
+    private final Path _path;
+
+    /** The open file. */
+    private final FileChannel _channel;
+}
@@ -0,0 +1,385 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for the rotor order and start position of a
+ *  message.  Every rotor order that the machines of a RotorLibrary can
+ *  hold is tried at every start position, with an empty plugboard, and
+ *  the candidates whose decryptions have the highest index of
+ *  coincidence are kept.  The keyspace is spread over a ForkJoinPool,
+ *  one task per rotor order and setting of the non-moving rotors.  Each
+ *  task decrypts into a reused table of letter counts and keeps only a
+ *  bounded heap of its best candidates, which are merged as the tasks
+ *  join, so neither time per position nor memory grows with the number
+ *  of candidates examined.
+ *  @author Abel Yagubyan
+ */
+final class CoincidenceSearch {
+
+    /** Run a search, as specified by ARGS: CONFIG CIPHERTEXT COUNT
+     *  [ROTOR ...].  CONFIG names a configuration file and CIPHERTEXT a
+     *  file containing one message (whitespace is ignored).  Prints the
+     *  COUNT best candidates, best first, each as its index of
+     *  coincidence followed by a settings line.  When ROTORs are given
+     *  (the reflector first), only that rotor order is searched. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 3) {
+                throw error("Usage: java enigma.CoincidenceSearch CONFIG "
+                            + "CIPHERTEXT COUNT [ROTOR ...]");
+            }
+            RotorLibrary library = Main.loadLibrary(args[0]);
+            String text;
+            try {
+                text = new String(Files.readAllBytes(Paths.get(args[1])));
+            } catch (IOException excp) {
+                throw error("could not open %s", args[1]);
+            }
+            int count;
+            try {
+                count = Integer.parseInt(args[2]);
+            } catch (NumberFormatException excp) {
+                throw error("The count must be an integer!");
+            }
+            CoincidenceSearch search =
+                new CoincidenceSearch(library, text.replaceAll("\\s+", ""));
+            if (args.length > 3) {
+                search.restrictTo(Arrays.copyOfRange(args, 3, args.length));
+            }
+            for (Candidate cand
+                     : search.search(ForkJoinPool.commonPool(), count)) {
+                System.out.printf("%.5f %s%n", cand.coincidence(), cand);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search for the settings of machines of LIBRARY that produced
+     *  CIPHERTEXT. */
+    CoincidenceSearch(RotorLibrary library, String ciphertext) {
+        Alphabet alpha = library.alphabet();
+        if (ciphertext.length() < 2) {
+            throw error("The ciphertext is too short to rank!");
+        }
+        _library = library;
+        _size = alpha.size();
+        _cipher = new int[ciphertext.length()];
+        for (int x = 0; x < _cipher.length; x += 1) {
+            char c = ciphertext.charAt(x);
+            if (!alpha.contains(c)) {
+                throw error("The value isn't part of the alphabet!");
+            }
+            _cipher[x] = alpha.toInt(c);
+        }
+        setOrders(library.orders());
+    }
+
+    /** Search only the rotor order NAMES (NAMES[0] naming the
+     *  reflector). */
+    void restrictTo(String[] names) {
+        _library.spec(names, Cycles.parse("", _library.alphabet()));
+        String[] order = new String[names.length];
+        for (int x = 0; x < names.length; x += 1) {
+            order[x] = names[x].toUpperCase();
+        }
+        setOrders(Collections.singletonList(order));
+    }
+
+    /** Return the COUNT candidates with the highest index of coincidence,
+     *  best first (ties going to the earlier rotor order and start
+     *  position), searching with the threads of POOL. */
+    List<Candidate> search(ForkJoinPool pool, int count) {
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+        List<Candidate> result =
+            new ArrayList<>(pool.invoke(new Search(0, units(), count)));
+        result.sort(WORST_FIRST.reversed());
+        return result;
+    }
+
+    /** Return the number of units into which my keyspace is divided:
+     *  unit U is the rotor order U / F, where F is the number of settings
+     *  of the non-moving rotors, with those rotors at setting U % F, and
+     *  every setting of the moving ones. */
+    long units() {
+        return _specs.length * _fixedCombos;
+    }
+
+    /** Return the COUNT best candidates of unit UNIT, in no particular
+     *  order. */
+    List<Candidate> search(long unit, int count) {
+        if (unit < 0 || unit >= units()) {
+            throw error("There is no unit %d!", unit);
+        }
+        if (count <= 0) {
+            return new ArrayList<>();
+        }
+        return new ArrayList<>(run(unit, count));
+    }
+
+    /** Return the candidate with place RANK in my keyspace, as given by
+     *  Candidate.rank, whose decryption has SCORE pairs of equal
+     *  letters. */
+    Candidate candidate(long rank, long score) {
+        if (rank < 0 || rank / _movingCombos >= units()) {
+            throw error("There is no candidate %d!", rank);
+        }
+        long unit = rank / _movingCombos;
+        int[] settings = settings(unit);
+        long rest = rank % _movingCombos;
+        for (int x = settings.length - 1;
+             x >= settings.length - _library.numPawls(); x -= 1) {
+            settings[x] = (int) (rest % _size);
+            rest /= _size;
+        }
+        return new Candidate(_orders.get((int) (unit / _fixedCombos)),
+                             settings, score, rank);
+    }
+
+    /** Return a hash of my ciphertext and of the rotor orders I search and
+     *  their wirings, which differs, but for collisions, between searches
+     *  with different candidates. */
+    int fingerprint() {
+        int result = Arrays.hashCode(_cipher);
+        for (int x = 0; x < _specs.length; x += 1) {
+            result = 31 * result + Arrays.hashCode(_orders.get(x));
+            for (int k = 0; k < _specs[x].numRotors(); k += 1) {
+                Wiring wiring = _specs[x].slot(k);
+                result = 31 * result + Arrays.hashCode(wiring.forward());
+                result = 31 * result + Arrays.hashCode(wiring.notches());
+            }
+        }
+        return result;
+    }
+
+    /** A rotor order and start position, with the index of coincidence of
+     *  the decryption they give. */
+    final class Candidate {
+
+        /** A candidate for the rotors named ORDER at start positions START,
+         *  whose decryption has SCORE pairs of equal letters.  RANK is its
+         *  place in the keyspace. */
+        private Candidate(String[] order, int[] start, long score,
+                          long rank) {
+            _order = order;
+            _start = start;
+            _score = score;
+            _rank = rank;
+        }
+
+        /** Return the names of my rotors, reflector first. */
+        String[] order() {
+            return _order.clone();
+        }
+
+        /** Return my start position of slot K. */
+        int start(int k) {
+            return _start[k];
+        }
+
+        /** Return the index of coincidence of my decryption. */
+        double coincidence() {
+            long n = _cipher.length;
+            return (double) _score / (n * (n - 1));
+        }
+
+        /** Return the number of ordered pairs of equal letters in my
+         *  decryption. */
+        long score() {
+            return _score;
+        }
+
+        /** Return my place in the keyspace: U * M + S, where U is my unit
+         *  and S the setting of my moving rotors, of which there are M,
+         *  as a number in base alphabet size. */
+        long rank() {
+            return _rank;
+        }
+
+        /** Return me as a settings line, as accepted by Main. */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder("*");
+            for (String name : _order) {
+                result.append(' ').append(name);
+            }
+            result.append(' ');
+            for (int x = 1; x < _start.length; x += 1) {
+                result.append(_library.settingChar(_start[x]));
+            }
+            return result.toString();
+        }
+
+        /** Rotor names, reflector first. */
+        private final String[] _order;
+
+        /** Start position of each slot. */
+        private final int[] _start;
+
+        /** Number of ordered pairs of equal letters in my decryption. */
+        private final long _score;
+
+        /** My place in the keyspace. */
+        private final long _rank;
+    }
+
+    /** Orders candidates from worst to best. */
+    static final Comparator<Candidate> WORST_FIRST =
+        Comparator.<Candidate>comparingLong(c -> c._score)
+        .thenComparing(Comparator.<Candidate>comparingLong(c -> c._rank)
+                       .reversed());
+
+    /** Add CAND to BEST, which is ordered by WORST_FIRST and is to hold
+     *  at most COUNT candidates. */
+    static void offer(PriorityQueue<Candidate> best, Candidate cand,
+                      int count) {
+        if (best.size() < count) {
+            best.add(cand);
+        } else if (WORST_FIRST.compare(cand, best.peek()) > 0) {
+            best.poll();
+            best.add(cand);
+        }
+    }
+
+    /** Search the rotor orders ORDERS. */
+    private void setOrders(List<String[]> orders) {
+        int numRotors = _library.numRotors();
+        int pawls = _library.numPawls();
+        _fixedCombos = 1;
+        _movingCombos = 1;
+        for (int x = 1; x < numRotors; x += 1) {
+            if (x < numRotors - pawls) {
+                _fixedCombos *= _size;
+            } else {
+                _movingCombos *= _size;
+            }
+        }
+        int[] plain = Cycles.parse("", _library.alphabet());
+        _specs = new MachineSpec[orders.size()];
+        for (int x = 0; x < _specs.length; x += 1) {
+            _specs[x] = _library.spec(orders.get(x), plain);
+        }
+        _orders = orders;
+    }
+
+    /** Return start positions with the non-moving rotors at the setting
+     *  of unit UNIT and the moving ones at 0. */
+    private int[] settings(long unit) {
+        int numRotors = _library.numRotors();
+        int[] result = new int[numRotors];
+        long fixed = unit % _fixedCombos;
+        for (int x = numRotors - _library.numPawls() - 1; x >= 1; x -= 1) {
+            result[x] = (int) (fixed % _size);
+            fixed /= _size;
+        }
+        return result;
+    }
+
+    /** Return the best COUNT candidates of unit UNIT. */
+    private PriorityQueue<Candidate> run(long unit, int count) {
+        PriorityQueue<Candidate> best =
+            new PriorityQueue<>(count, WORST_FIRST);
+        MachineSpec spec = _specs[(int) (unit / _fixedCombos)];
+        String[] order = _orders.get((int) (unit / _fixedCombos));
+        int numRotors = spec.numRotors();
+        int movingFrom = numRotors - spec.numPawls();
+        int[] settings = settings(unit);
+        MachineCursor cursor = spec.cursor(settings);
+        int[] pos = cursor.positions();
+        int size = _size;
+        long movingCombos = _movingCombos;
+        int[] counts = new int[size];
+        for (long c = 0; c < movingCombos; c += 1) {
+            long rest = c;
+            for (int x = numRotors - 1; x >= movingFrom; x -= 1) {
+                settings[x] = (int) (rest % size);
+                rest /= size;
+            }
+            System.arraycopy(settings, 0, pos, 0, numRotors);
+            Arrays.fill(counts, 0);
+            for (int ch : _cipher) {
+                counts[spec.convert(cursor, ch)] += 1;
+            }
+            long score = 0;
+            for (int n : counts) {
+                score += (long) n * (n - 1);
+            }
+            if (best.size() < count || score > best.peek()._score) {
+                offer(best, new Candidate(order, settings.clone(), score,
+                                          unit * movingCombos + c),
+                      count);
+            }
+        }
+        return best;
+    }
+
+    /** A task searching the units LO .. HI - 1 of the keyspace. */
+    private final class Search
+        extends RecursiveTask<PriorityQueue<Candidate>> {
+
+        /** Search units LO .. HI - 1, keeping the best COUNT
+         *  candidates. */
+        Search(long lo, long hi, int count) {
+            _lo = lo;
+            _hi = hi;
+            _count = count;
+        }
+
+        @Override
+        protected PriorityQueue<Candidate> compute() {
+            if (_hi - _lo > 1) {
+                long mid = (_lo + _hi) >>> 1;
+                Search left = new Search(_lo, mid, _count);
+                left.fork();
+                PriorityQueue<Candidate> right =
+                    new Search(mid, _hi, _count).compute();
+                PriorityQueue<Candidate> result = left.join();
+                for (Candidate cand : right) {
+                    offer(result, cand, _count);
+                }
+                return result;
+            }
+            return run(_lo, _count);
+        }
+
+        /** Range of units to search. */
+        private final long _lo, _hi;
+
+        /** Number of candidates to keep. */
+        private final int _count;
+    }
+
+    /** The machines under attack. */
+    private final RotorLibrary _library;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Rotor orders to search. */
+    private List<String[]> _orders;
+
+    /** Configurations of each rotor order, unplugged. */
+    private MachineSpec[] _specs;
+
+    /** Number of settings of the non-moving and moving rotors. */
+    private long _fixedCombos, _movingCombos;
+}
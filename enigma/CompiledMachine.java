@@ -0,0 +1,121 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.List;
+
+/** A snapshot of a configured Machine in which the rotors, reflector and
+ *  plugboard have been flattened into primitive tables: a shareable
+ *  MachineSpec together with a MachineCursor of its own.  Stepping
+ *  follows Machine.convert exactly, including double stepping.
+ *  @author Abel Yagubyan
+ */
+final class CompiledMachine {
+
+    /** A compiled machine with configuration SPEC and rotor positions
+     *  CURSOR. */
+    CompiledMachine(MachineSpec spec, MachineCursor cursor) {
+        _spec = spec;
+        _cursor = cursor;
+    }
+
+    /** Return a copy of me that shares my tables but moves independently
+     *  of me, starting at my current settings. */
+    CompiledMachine copy() {
+        return new CompiledMachine(_spec, _cursor.copy());
+    }
+
+    /** Return my configuration. */
+    MachineSpec spec() {
+        return _spec;
+    }
+
+    /** Return my rotor positions. */
+    MachineCursor cursor() {
+        return _cursor;
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _spec.alphabet();
+    }
+
+    /** Return the number of rotor slots I have. */
+    int numRotors() {
+        return _spec.numRotors();
+    }
+
+    /** Return the setting of the rotor in slot K. */
+    int setting(int k) {
+        return _cursor.setting(k);
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1), after first advancing
+     *  the machine. */
+    int convert(int c) {
+        return _spec.convert(_cursor, c);
+    }
+
+    /** Returns the encoding/decoding of MSG, updating the state of
+     *  the rotors accordingly. */
+    String convert(String msg) {
+        return _spec.convert(_cursor, msg);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF, storing the
+     *  results in OUT starting at OUTOFF and updating the state of the
+     *  rotors accordingly.  The whole range is checked against my
+     *  alphabet before any rotor moves.  OUT may be IN, provided that
+     *  OUTOFF <= OFF. */
+    void convert(char[] in, int off, int len, char[] out, int outOff) {
+        _spec.convert(_cursor, in, off, len, out, outOff);
+    }
+
+    /** Convert all remaining characters of IN into OUT, advancing the
+     *  positions of both buffers.  The whole of IN is checked against my
+     *  alphabet before any rotor moves or either buffer changes. */
+    void convert(CharBuffer in, CharBuffer out) {
+        _spec.convert(_cursor, in, out);
+    }
+
+    /** Advance the rotors by one key press, as Machine.convert does. */
+    void step() {
+        _spec.step(_cursor);
+    }
+
+    /** Return the image of C under the machine's current substitution,
+     *  without advancing any rotor. */
+    int substitute(int c) {
+        return _spec.substitute(_cursor, c);
+    }
+
+    /** Advance the rotors as N key presses would, without converting
+     *  anything (see MachineSpec.advanceBy). */
+    void advanceBy(long n) {
+        _spec.advanceBy(_cursor, n);
+    }
+
+    /** Take the settings of my moving slots from ROTORS, which must be
+     *  the rotors I was compiled from. */
+    void load(List<Rotor> rotors) {
+        int[] pos = _cursor.positions();
+        for (int x = _spec.firstMoving(); x < pos.length; x += 1) {
+            pos[x] = rotors.get(x).setting();
+        }
+    }
+
+    /** Copy the settings of my moving slots back into ROTORS, which must
+     *  be the rotors I was compiled from. */
+    void store(List<Rotor> rotors) {
+        int[] pos = _cursor.positions();
+        for (int x = _spec.firstMoving(); x < pos.length; x += 1) {
+            rotors.get(x).set(pos[x]);
+        }
+    }
+
+    /** My configuration. */
+    private final MachineSpec _spec;
+
+    /** My rotor positions. */
+    private final MachineCursor _cursor;
+}
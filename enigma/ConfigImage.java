@@ -0,0 +1,243 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
+import java.util.Collection;
+
+import static enigma.EnigmaException.*;
+
+/** A precompiled configuration file: a binary image of a RotorLibrary,
+ *  holding its alphabet, slot and pawl counts, and each rotor's type,
+ *  notches and resolved forward and backward tables.  An image is read
+ *  through a memory-mapped buffer without any text parsing, and Main
+ *  accepts one wherever it accepts a configuration file.
+ *
+ *  The image is a sequence of big-endian fields: the int MAGIC, whose
+ *  first byte is not ASCII, so that no text configuration begins like
+ *  an image, and the int VERSION; the alphabet, as the byte RANGE
+ *  followed by its first and last chars, or the byte CHARS followed by
+ *  an int count and that many chars; the ints number of rotor slots,
+ *  number of pawls, settings offset and number of rotors; and then for
+ *  each rotor, an unsigned short name length and the chars of its name,
+ *  a type byte (REFLECTOR, FIXED or MOVING), the forward table and the
+ *  backward table as one int per alphabet index, and a notch bitmap of
+ *  one byte per alphabet index.
+ *  @author Abel Yagubyan
+ */
+final class ConfigImage {
+
+    /** Compile the configuration file named ARGS[0] into an image in the
+     *  file named ARGS[1].  Exits normally if there are no errors in the
+     *  configuration; otherwise with code 1. */
+    public static void main(String... args) {
+        try {
+            if (args.length != 2) {
+                throw error("Usage: java enigma.ConfigImage CONFIG IMAGE");
+            }
+            write(Main.loadLibrary(args[0]), Paths.get(args[1]));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Not instantiable. */
+    private ConfigImage() {
+    }
+
+    /** Return true iff the file named NAME begins like an image. */
+    static boolean isImage(String name) {
+        try (FileChannel in = FileChannel.open(Paths.get(name))) {
+            ByteBuffer head = ByteBuffer.allocate(4);
+            while (head.hasRemaining() && in.read(head) != -1) {
+                continue;
+            }
+            return !head.hasRemaining() && head.getInt(0) == MAGIC;
+        } catch (IOException excp) {
+            return false;
+        }
+    }
+
+    /** Return the library held in the image file named NAME. */
+    static RotorLibrary read(String name) {
+        MappedByteBuffer image;
+        try (FileChannel in = FileChannel.open(Paths.get(name))) {
+            image = in.map(FileChannel.MapMode.READ_ONLY, 0, in.size());
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+        try {
+            return read(image);
+        } catch (BufferUnderflowException excp) {
+            throw error("The compiled configuration is truncated!");
+        }
+    }
+
+    /** Write LIBRARY as an image to the file at PATH. */
+    static void write(RotorLibrary library, Path path) {
+        Alphabet alpha = library.alphabet();
+        if (alpha == null) {
+            throw error("The configuration has no alphabet!");
+        }
+        int size = alpha.size();
+        Collection<Wiring> wirings = library.wirings();
+        long length = 2 * 4 + 1 + 4 + 2L * size + 4 * 4;
+        for (Wiring wiring : wirings) {
+            if (wiring.name().length() > MAX_NAME) {
+                throw error("The name of rotor %s is too long to compile!",
+                            wiring.name());
+            }
+            length += 2 + 2 * wiring.name().length() + 1 + 9 * size;
+        }
+        if (length > Integer.MAX_VALUE) {
+            throw error("The configuration is too large to compile!");
+        }
+        ByteBuffer image = ByteBuffer.allocate((int) length);
+        image.putInt(MAGIC).putInt(VERSION);
+        if (alpha instanceof CharacterRange) {
+            image.put(RANGE).putChar(alpha.toChar(0))
+                .putChar(alpha.toChar(size - 1));
+        } else {
+            image.put(CHARS).putInt(size);
+            for (int x = 0; x < size; x += 1) {
+                image.putChar(alpha.toChar(x));
+            }
+        }
+        image.putInt(library.numRotors()).putInt(library.numPawls())
+            .putInt(library.offset()).putInt(wirings.size());
+        for (Wiring wiring : wirings) {
+            String name = wiring.name();
+            image.putShort((short) name.length());
+            for (int x = 0; x < name.length(); x += 1) {
+                image.putChar(name.charAt(x));
+            }
+            image.put(wiring.reflecting() ? REFLECTOR
+                      : wiring.rotates() ? MOVING : FIXED);
+            for (int k : wiring.forward()) {
+                image.putInt(k);
+            }
+            for (int k : wiring.backward()) {
+                image.putInt(k);
+            }
+            for (boolean notch : wiring.notches()) {
+                image.put((byte) (notch ? 1 : 0));
+            }
+        }
+        image.flip();
+        try (FileChannel out = FileChannel.open(path,
+                StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                StandardOpenOption.TRUNCATE_EXISTING)) {
+            while (image.hasRemaining()) {
+                out.write(image);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", path);
+        }
+    }
+
+    /** Return the library held in IMAGE, checking that its tables are
+     *  consistent. */
+    private static RotorLibrary read(ByteBuffer image) {
+        if (image.remaining() < 8 || image.getInt() != MAGIC) {
+            throw error("This isn't a compiled configuration!");
+        }
+        if (image.getInt() != VERSION) {
+            throw error("The compiled configuration's version is "
+                        + "unsupported!");
+        }
+        Alphabet alpha;
+        switch (image.get()) {
+        case RANGE:
+            alpha = new CharacterRange(image.getChar(), image.getChar());
+            break;
+        case CHARS:
+            char[] chars = new char[count(image, 2)];
+            image.asCharBuffer().get(chars);
+            image.position(image.position() + 2 * chars.length);
+            alpha = new Alphabet(new String(chars));
+            break;
+        default:
+            throw error("The compiled alphabet is invalid!");
+        }
+        int size = alpha.size();
+        int numRotors = image.getInt(), pawls = image.getInt();
+        if (pawls < 0) {
+            throw error("The compiled number of pawls is invalid!");
+        }
+        if (numRotors <= pawls) {
+            throw error("Rotor no. must be greater than pawls!");
+        }
+        int offset = image.getInt();
+        if (offset < 0 || offset >= size) {
+            throw error("The compiled settings offset is invalid!");
+        }
+        Wiring[] wirings = new Wiring[count(image, 9 * size)];
+        for (int r = 0; r < wirings.length; r += 1) {
+            int length = Short.toUnsignedInt(image.getShort());
+            if (2L * length > image.remaining()) {
+                throw new BufferUnderflowException();
+            }
+            char[] name = new char[length];
+            for (int x = 0; x < name.length; x += 1) {
+                name[x] = image.getChar();
+            }
+            byte type = image.get();
+            if (type != REFLECTOR && type != FIXED && type != MOVING) {
+                throw error("It isn't a valid rotor type!");
+            }
+            int[] forward = new int[size], backward = new int[size];
+            image.asIntBuffer().get(forward);
+            image.position(image.position() + 4 * size);
+            image.asIntBuffer().get(backward);
+            image.position(image.position() + 4 * size);
+            boolean[] notches = new boolean[size];
+            for (int x = 0; x < size; x += 1) {
+                notches[x] = image.get() != 0;
+            }
+            for (int x = 0; x < size; x += 1) {
+                if (forward[x] < 0 || forward[x] >= size
+                    || backward[forward[x]] != x) {
+                    throw error("The compiled wiring of %s is invalid!",
+                                new String(name));
+                }
+            }
+            wirings[r] = new Wiring(new String(name), type == MOVING,
+                                    type == REFLECTOR, forward, backward,
+                                    notches);
+        }
+        return new RotorLibrary(alpha, numRotors, pawls, wirings, offset);
+    }
+
+    /** Return the count read from IMAGE, checking that IMAGE has room for
+     *  that many items of at least UNIT bytes each. */
+    private static int count(ByteBuffer image, int unit) {
+        int result = image.getInt();
+        if (result < 0 || (long) result * unit > image.remaining()) {
+            throw new BufferUnderflowException();
+        }
+        return result;
+    }
+
+    /** First int of every image: a byte that cannot begin a text file
+     *  in ASCII or UTF-8, then "ENG". */
+    static final int MAGIC = 0x89454E47;
+
+    /** Version of the image format written. */
+    static final int VERSION = 1;
+
+    /** Longest rotor name an image can hold. */
+    private static final int MAX_NAME = 0xFFFF;
+
+    /** Tags of the two forms of alphabet. */
+    private static final byte RANGE = 0, CHARS = 1;
+
+    /** Tags of the three types of rotor. */
+    private static final byte REFLECTOR = 0, FIXED = 1, MOVING = 2;
+}
@@ -0,0 +1,194 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Conversions between permutations written in cycle notation, such as
+ *  "(AELTPHQXRU) (BKNW) (S)", and tables whose entry K is the index of
+ *  the image of alphabet character #K.  Parsing makes a single pass over
+ *  the cycles and does constant work per character, so a rotor or
+ *  plugboard over even a large alphabet is built in time linear in its
+ *  description and the alphabet's size, without going through
+ *  Permutation.
+ *  @author Abel Yagubyan
+ */
+final class Cycles {
+
+    /** Not instantiable. */
+    private Cycles() {
+    }
+
+    /** Return the table of the permutation of ALPHA written as CYCLES.
+     *  CYCLES is a sequence of parenthesized cycles separated by
+     *  whitespace; each character of a cycle maps to the next, the last
+     *  one to the first, and characters in no cycle map to themselves.
+     *  Characters may be written as Escapes.  No character may appear in
+     *  CYCLES more than once. */
+    static int[] parse(String cycles, Alphabet alpha) {
+        int size = alpha.size();
+        int[] result = new int[size];
+        boolean[] seen = new boolean[size];
+        int n = cycles.length();
+        int x = skipSpace(cycles, 0);
+        while (x < n) {
+            if (cycles.charAt(x) != '(') {
+                throw error("The cycle is of improper format!.");
+            }
+            x = skipSpace(cycles, x + 1);
+            int first = -1, prev = -1;
+            while (x < n && cycles.charAt(x) != ')') {
+                char ch = Escapes.charAt(cycles, x);
+                int end = x + Escapes.length(cycles, x);
+                if (!alpha.contains(ch)) {
+                    throw error("The cycle character is improper!");
+                }
+                int k = alpha.toInt(ch);
+                if (seen[k]) {
+                    throw error("The character %c appears in the cycles"
+                                + " more than once!", ch);
+                }
+                seen[k] = true;
+                if (prev == -1) {
+                    first = k;
+                } else {
+                    result[prev] = k;
+                }
+                prev = k;
+                int next = skipSpace(cycles, end);
+                if (next > end && next < n && cycles.charAt(next) != ')') {
+                    throw error("The cycle character is improper!");
+                }
+                x = next;
+            }
+            if (x == n) {
+                throw error("The cycle is of improper format!.");
+            }
+            if (prev != -1) {
+                result[prev] = first;
+            }
+            x = skipSpace(cycles, x + 1);
+        }
+        for (int k = 0; k < size; k += 1) {
+            if (!seen[k]) {
+                result[k] = k;
+            }
+        }
+        return result;
+    }
+
+    /** Return the inverse of the permutation TABLE. */
+    static int[] inverse(int[] table) {
+        int[] result = new int[table.length];
+        for (int x = 0; x < table.length; x += 1) {
+            result[table[x]] = x;
+        }
+        return result;
+    }
+
+    /** Return the table of PERM, found by querying it at every index. */
+    static int[] table(Permutation perm) {
+        int[] result = new int[perm.size()];
+        for (int x = 0; x < result.length; x += 1) {
+            result[x] = perm.permute(x);
+        }
+        return result;
+    }
+
+    /** Return the permutation TABLE of ALPHA in cycle notation, as
+     *  accepted by parse, every character appearing in exactly one
+     *  cycle.  Characters other than printable ASCII characters that are
+     *  not parentheses or backslashes are written as Escapes. */
+    static String format(int[] table, Alphabet alpha) {
+        StringBuilder result = new StringBuilder();
+        boolean[] seen = new boolean[table.length];
+        for (int x = 0; x < table.length; x += 1) {
+            if (!seen[x]) {
+                if (result.length() > 0) {
+                    result.append(' ');
+                }
+                result.append('(');
+                for (int y = x; !seen[y]; y = table[y]) {
+                    seen[y] = true;
+                    appendChar(result, alpha.toChar(y));
+                }
+                result.append(')');
+            }
+        }
+        return result.toString();
+    }
+
+    /** Return the permutation of ALPHA whose table is TABLE.  Unlike
+     *  Permutation's own reader, which takes cycle characters verbatim,
+     *  it handles any character of ALPHA, including parentheses,
+     *  whitespace and characters whose case differs. */
+    static Permutation permutation(int[] table, Alphabet alpha) {
+        return new TablePermutation(table, alpha);
+    }
+
+    /** Append CH to OUT, as an escape unless it is a printable ASCII
+     *  character that is neither a parenthesis nor a backslash. */
+    private static void appendChar(StringBuilder out, char ch) {
+        if (ch > ' ' && ch < 0x7F && ch != '(' && ch != ')' && ch != '\\') {
+            out.append(ch);
+        } else if (ch <= 0xFF) {
+            out.append(String.format("\\x%02X", (int) ch));
+        } else {
+            out.append('\\').append('u')
+                .append(String.format("%04X", (int) ch));
+        }
+    }
+
+    /** Return the index of the first character of S at or after X that
+     *  is not whitespace, or S's length if there is none. */
+    private static int skipSpace(String s, int x) {
+        while (x < s.length() && Character.isWhitespace(s.charAt(x))) {
+            x += 1;
+        }
+        return x;
+    }
+
+    /** A Permutation given by its table rather than its cycles. */
+    private static final class TablePermutation extends Permutation {
+
+        /** The permutation of ALPHA whose table is TABLE. */
+        TablePermutation(int[] table, Alphabet alpha) {
+            super("", alpha);
+            _forward = table.clone();
+            _backward = inverse(table);
+        }
+
+        @Override
+        int permute(int p) {
+            return _forward[wrap(p)];
+        }
+
+        @Override
+        int invert(int c) {
+            return _backward[wrap(c)];
+        }
+
+        @Override
+        char permute(char p) {
+            return alphabet().toChar(permute(alphabet().toInt(p)));
+        }
+
+        @Override
+        char invert(char c) {
+            return alphabet().toChar(invert(alphabet().toInt(c)));
+        }
+
+        @Override
+        boolean derangement() {
+            for (int x = 0; x < _forward.length; x += 1) {
+                if (_forward[x] == x) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        /** Entry K is the index of the image of character #K. */
+        private final int[] _forward;
+        /** Entry K is the index of the preimage of character #K. */
+        private final int[] _backward;
+    }
+}
@@ -0,0 +1,343 @@
+package enigma;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardProtocolFamily;
+import java.net.UnixDomainSocketAddress;
+import java.nio.channels.Channels;
+import java.nio.channels.ServerSocketChannel;
+import java.nio.channels.SocketChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+import static enigma.EnigmaException.*;
+
+/** A resident Enigma server.  It loads one or more configurations once
+ *  and then converts messages for any number of clients over a local
+ *  socket, so that a client pays neither JVM startup nor configuration
+ *  parsing per message.  Each connection is served by its own thread
+ *  (a virtual thread where the JDK has them), and all connections share
+ *  the rotor libraries and caches of machines and keystreams.
+ *
+ *  A connection carries any number of requests, each answered in turn.
+ *  All fields are big-endian, and strings are in the modified UTF-8 of
+ *  DataInput.readUTF.  A request is: the name of a configuration, a
+ *  settings line as for Main (which must name its rotors; the plugboard
+ *  is empty unless given), and the message, as an int byte count
+ *  followed by that many bytes of UTF-8.  Whitespace in the message, as
+ *  Main skips it, is ignored.  The response is the byte OK followed by
+ *  the converted message in the same form (without grouping), or the
+ *  byte FAILED followed by an error message string.  A request whose
+ *  message is too long or cut short is answered FAILED, and then the
+ *  connection is closed.  Requests that a client sends without waiting
+ *  are answered together, in a single write.
+ *  @author Abel Yagubyan
+ */
+final class EnigmaDaemon {
+
+    /** Serve requests, as specified by ARGS: ADDRESS CONFIG ...
+     *  ADDRESS is a port number, to listen on the loopback interface, or
+     *  otherwise the path of a Unix domain socket to create, which may
+     *  replace only a stale socket left by an earlier server.  Each CONFIG
+     *  is NAME=FILE, loading the configuration (text or image) in FILE
+     *  under NAME, or just FILE, loading it under its own name. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2) {
+                throw error("Usage: java enigma.EnigmaDaemon ADDRESS "
+                            + "CONFIG ...");
+            }
+            Map<String, RotorLibrary> libraries = new LinkedHashMap<>();
+            for (int x = 1; x < args.length; x += 1) {
+                int eq = args[x].indexOf('=');
+                String name = eq == -1 ? args[x] : args[x].substring(0, eq);
+                Metrics metrics = Metrics.current();
+                long start = metrics.start(Metrics.Stage.CONFIG);
+                libraries.put(name,
+                              Main.loadLibrary(args[x].substring(eq + 1)));
+                metrics.end(Metrics.Stage.CONFIG, start, 0);
+            }
+            new EnigmaDaemon(libraries).serve(open(args[0]));
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A server for the configurations in LIBRARIES, by name. */
+    EnigmaDaemon(Map<String, RotorLibrary> libraries) {
+        Map<String, MachineCache> machines = new LinkedHashMap<>();
+        for (Map.Entry<String, RotorLibrary> entry : libraries.entrySet()) {
+            machines.put(entry.getKey(), new MachineCache(entry.getValue(),
+                                                          MACHINE_CACHE_SIZE));
+        }
+        _machines = Collections.unmodifiableMap(machines);
+        _keystreams = new KeystreamCache(KEYSTREAM_BUDGET, KEYSTREAM_WINDOW);
+    }
+
+    /** Return a server socket listening at ADDRESS, as described for
+     *  main. */
+    static ServerSocketChannel open(String address) {
+        try {
+            if (address.matches("\\d+")) {
+                ServerSocketChannel server = ServerSocketChannel.open();
+                server.bind(new InetSocketAddress(
+                    InetAddress.getLoopbackAddress(),
+                    Integer.parseInt(address)));
+                return server;
+            }
+            Path path = Paths.get(address);
+            removeStaleSocket(path);
+            SocketAddress local = UnixDomainSocketAddress.of(path);
+            ServerSocketChannel server =
+                ServerSocketChannel.open(StandardProtocolFamily.UNIX);
+            server.bind(local);
+            path.toFile().deleteOnExit();
+            return server;
+        } catch (IOException | IllegalArgumentException excp) {
+            throw error("could not listen at %s", address);
+        }
+    }
+
+    /** Delete PATH if it is a Unix domain socket on which nothing is
+     *  listening.  It is an error for PATH to be anything else that
+     *  exists. */
+    private static void removeStaleSocket(Path path) throws IOException {
+        if (!Files.exists(path, LinkOption.NOFOLLOW_LINKS)) {
+            return;
+        }
+        int mode;
+        try {
+            mode = (Integer) Files.getAttribute(path, "unix:mode",
+                                                LinkOption.NOFOLLOW_LINKS);
+        } catch (UnsupportedOperationException excp) {
+            throw error("%s already exists", path);
+        }
+        if ((mode & S_IFMT) != S_IFSOCK) {
+            throw error("%s already exists and is not a socket", path);
+        }
+        try (SocketChannel probe =
+                 SocketChannel.open(StandardProtocolFamily.UNIX)) {
+            probe.connect(UnixDomainSocketAddress.of(path));
+        } catch (IOException excp) {
+            Files.delete(path);
+            return;
+        }
+        throw error("%s is in use by another server", path);
+    }
+
+    /** Accept connections on SERVER and serve each on its own thread,
+     *  until SERVER is closed. */
+    void serve(ServerSocketChannel server) {
+        ExecutorService threads = connectionThreads();
+        try {
+            while (true) {
+                SocketChannel client = server.accept();
+                threads.execute(() -> handle(client));
+            }
+        } catch (IOException excp) {
+            if (server.isOpen()) {
+                throw error("could not accept a connection: %s",
+                            excp.getMessage());
+            }
+        } finally {
+            threads.shutdown();
+        }
+    }
+
+    /** Answer the requests arriving on CLIENT until it closes. */
+    private void handle(SocketChannel client) {
+        try (client) {
+            DataInputStream in = new DataInputStream(new BufferedInputStream(
+                Channels.newInputStream(client), STREAM_BUFFER_SIZE));
+            DataOutputStream out = new DataOutputStream(
+                new BufferedOutputStream(Channels.newOutputStream(client),
+                                         STREAM_BUFFER_SIZE));
+            Connection conn = new Connection();
+            while (true) {
+                String config;
+                try {
+                    config = in.readUTF();
+                } catch (EOFException excp) {
+                    break;
+                }
+                String settings = in.readUTF();
+                int length = in.readInt();
+                if (length < 0 || length > MAX_MESSAGE) {
+                    refuse(out, String.format(
+                        "The message length %d is not between 0 and %d",
+                        length, MAX_MESSAGE));
+                    break;
+                }
+                byte[] message = in.readNBytes(length);
+                if (message.length < length) {
+                    refuse(out, String.format(
+                        "The message ended after %d of its %d bytes",
+                        message.length, length));
+                    break;
+                }
+                try {
+                    byte[] result = conn.convert(config, settings,
+                        new String(message, StandardCharsets.UTF_8))
+                        .getBytes(StandardCharsets.UTF_8);
+                    out.writeByte(OK);
+                    out.writeInt(result.length);
+                    out.write(result);
+                } catch (EnigmaException excp) {
+                    out.writeByte(FAILED);
+                    out.writeUTF(String.valueOf(excp.getMessage()));
+                }
+                if (in.available() == 0) {
+                    out.flush();
+                }
+            }
+            out.flush();
+        } catch (IOException excp) {
+            return;
+        }
+    }
+
+    /** Answer the request whose frame is malformed, for the reason
+     *  REASON, on OUT, before the connection is closed. */
+    private static void refuse(DataOutputStream out, String reason)
+        throws IOException {
+        out.writeByte(FAILED);
+        out.writeUTF(reason);
+        out.flush();
+    }
+
+    /** The state of one connection: the configuration, rotors, rotor
+     *  settings and plugboard of its last request, so that each request
+     *  changing any of them counts as a reconfiguration.  The machines
+     *  themselves come from the MachineCaches shared by all
+     *  connections. */
+    private final class Connection {
+
+        /** Return MESSAGE, ignoring whitespace, converted by a machine of
+         *  the configuration named CONFIG set up by the settings line
+         *  SETTINGS. */
+        String convert(String config, String settings, String message) {
+            Metrics metrics = Metrics.current();
+            long start = metrics.start(Metrics.Stage.MESSAGE);
+            metrics.count(Metrics.Counter.SETTINGS_LINES, 1);
+            MachineCache machines = _machines.get(config);
+            if (machines == null) {
+                throw error("There is no configuration named %s", config);
+            }
+            SettingsLine line = new SettingsLine(settings);
+            if (line.rotors().length == 0) {
+                throw error("The settings must name the rotors!");
+            }
+            String plugboard =
+                line.plugboard() == null ? "" : line.plugboard();
+            String key = config + '\0' + String.join(" ", line.rotors())
+                + '\0' + line.setting() + '\0' + plugboard;
+            if (!key.equals(_key)) {
+                _key = key;
+                metrics.count(Metrics.Counter.RECONFIGURATIONS, 1);
+            }
+            CompiledMachine machine = machines.get(
+                line.rotors(), line.setting(), plugboard);
+            MachineSpec spec = machine.spec();
+            MachineCursor cursor = machine.cursor();
+            char[] text = strip(message);
+            KeystreamCache.Keystream keystream = _keystreams.get(spec,
+                                                                 cursor);
+            if (keystream != null) {
+                keystream.convert(0, text, 0, text.length, text, 0);
+            } else {
+                spec.convert(cursor, text, 0, text.length, text, 0);
+            }
+            metrics.end(Metrics.Stage.MESSAGE, start, text.length);
+            metrics.count(Metrics.Counter.MESSAGES, 1);
+            metrics.count(Metrics.Counter.CHARACTERS, text.length);
+            return new String(text);
+        }
+
+        /** Configuration, rotors, rotor settings and plugboard of the
+         *  last request. */
+        private String _key;
+    }
+
+    /** Return the characters of MESSAGE other than whitespace, as Main
+     *  reads it. */
+    private static char[] strip(String message) {
+        char[] result = new char[message.length()];
+        int n = 0;
+        for (int x = 0; x < result.length; x += 1) {
+            char ch = message.charAt(x);
+            if (!MessageInput.isSpace(ch)) {
+                result[n] = ch;
+                n += 1;
+            }
+        }
+        return n == result.length ? result
+            : Arrays.copyOf(result, n);
+    }
+
+    /** Return an executor starting a thread per task: a virtual thread
+     *  if the JDK provides them, else a daemon platform thread. */
+    private static ExecutorService connectionThreads() {
+        try {
+            return (ExecutorService) Executors.class
+                .getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (ReflectiveOperationException excp) {
+            return Executors.newCachedThreadPool(r -> {
+                Thread thread = new Thread(r, "enigma-connection");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    /** Status byte of a successful response. */
+    static final byte OK = 0;
+
+    /** Status byte of a failed response. */
+    static final byte FAILED = 1;
+
+    /** Mask of the file type bits of a Unix file mode. */
+    private static final int S_IFMT = 0170000;
+
+    /** File type bits of a Unix domain socket. */
+    private static final int S_IFSOCK = 0140000;
+
+    /** Largest message accepted, in bytes. */
+    static final int MAX_MESSAGE = 1 << 24;
+
+    /** Size of each connection's stream buffers. */
+    private static final int STREAM_BUFFER_SIZE = 1 << 16;
+
+    /** Most machines remembered per configuration. */
+    private static final int MACHINE_CACHE_SIZE = 256;
+
+    /** Most keystream table entries held at once. */
+    private static final long KEYSTREAM_BUDGET = 1L << 26;
+
+    /** Most positions tabulated per keystream. */
+    private static final int KEYSTREAM_WINDOW = 1 << 15;
+
+    /** Machines of the settings seen for each configuration, by name,
+     *  shared by all connections. */
+    private final Map<String, MachineCache> _machines;
+
+    /** Keystreams of the settings seen, shared by all connections. */
+    private final KeystreamCache _keystreams;
+}
@@ -0,0 +1,145 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Reader;
+import java.nio.channels.Channels;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/** A Reader of the conversion of another Reader's text by a machine.
+ *  Text is read from the source a buffer at a time and converted as it
+ *  is read, and the machine's rotors keep their positions from one read
+ *  to the next, so a message of any length is converted exactly as if
+ *  it had been converted all at once.  Characters outside the machine's
+ *  alphabet are either skipped, as Main skips whitespace, or are an
+ *  error when they are read.
+ *  @author Abel Yagubyan
+ */
+final class EnigmaReader extends Reader {
+
+    /** A reader of the text of IN converted with SPEC from CURSOR, which
+     *  it advances.  Characters outside SPEC's alphabet are skipped iff
+     *  SKIP. */
+    EnigmaReader(Reader in, MachineSpec spec, MachineCursor cursor,
+                 boolean skip) {
+        _in = in;
+        _spec = spec;
+        _cursor = cursor;
+        _alphabet = spec.alphabet();
+        _skip = skip;
+        _buffer = new char[BUFFER_SIZE];
+    }
+
+    /** A reader of the text read from CHANNEL in CHARSET (malformed input
+     *  being replaced), converted with SPEC from CURSOR as for
+     *  EnigmaReader(Reader, MachineSpec, MachineCursor, boolean). */
+    EnigmaReader(ReadableByteChannel channel, Charset charset,
+                 MachineSpec spec, MachineCursor cursor, boolean skip) {
+        this(Channels.newReader(channel, charset.newDecoder()
+                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                .onUnmappableCharacter(
+                                    CodingErrorAction.REPLACE), -1),
+             spec, cursor, skip);
+    }
+
+    @Override
+    public int read(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        if (len == 0) {
+            return 0;
+        }
+        int n = fill();
+        if (n == -1) {
+            return -1;
+        }
+        n = Math.min(n, len);
+        System.arraycopy(_buffer, _next, cbuf, off, n);
+        _next += n;
+        return n;
+    }
+
+    @Override
+    public int read() throws IOException {
+        ensureOpen();
+        if (fill() == -1) {
+            return -1;
+        }
+        _next += 1;
+        return _buffer[_next - 1];
+    }
+
+    @Override
+    public boolean ready() throws IOException {
+        ensureOpen();
+        return _next < _limit;
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_in != null) {
+            _in.close();
+            _in = null;
+        }
+    }
+
+    /** Ensure that my buffer holds converted characters, reading and
+     *  converting more if it is empty.  Return the number it holds, or
+     *  -1 at the end of the source. */
+    private int fill() throws IOException {
+        while (_next == _limit) {
+            int n = _in.read(_buffer, 0, _buffer.length);
+            if (n == -1) {
+                return -1;
+            }
+            if (_skip) {
+                int kept = 0;
+                for (int x = 0; x < n; x += 1) {
+                    if (_alphabet.contains(_buffer[x])) {
+                        _buffer[kept] = _buffer[x];
+                        kept += 1;
+                    }
+                }
+                n = kept;
+            }
+            _spec.convert(_cursor, _buffer, 0, n, _buffer, 0);
+            _next = 0;
+            _limit = n;
+        }
+        return _limit - _next;
+    }
+
+    /** Throw an IOException if I have been closed. */
+    private void ensureOpen() throws IOException {
+        if (_in == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /** Size of the buffer of converted text. */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** Source of the text, or null once I am closed. */
+    private Reader _in;
+
+    /** Configuration of the machine. */
+    private final MachineSpec _spec;
+
+    /** Rotor positions of the machine. */
+    private final MachineCursor _cursor;
+
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+
+    /** True iff characters outside the alphabet are skipped. */
+    private final boolean _skip;
+
+    /** Converted text not yet read. */
+    private final char[] _buffer;
+
+    /** Index of the next character of _buffer to be read. */
+    private int _next;
+
+    /** Number of characters in _buffer. */
+    private int _limit;
+}
@@ -0,0 +1,139 @@
+package enigma;
+
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+/** A Writer that converts the text written to it with a machine and
+ *  writes the result to another Writer.  Text is converted as it is
+ *  written, into a buffer that is passed on when it fills or when the
+ *  writer is flushed, and the machine's rotors keep their positions
+ *  from one write to the next, so a message of any length is converted
+ *  exactly as if it had been converted all at once.  Characters outside
+ *  the machine's alphabet are either skipped, as Main skips whitespace,
+ *  or are an error when they are written.
+ *  @author Abel Yagubyan
+ */
+final class EnigmaWriter extends Writer {
+
+    /** A writer of the conversion with SPEC from CURSOR, which it
+     *  advances, of the text written to it, to OUT.  Characters outside
+     *  SPEC's alphabet are skipped iff SKIP. */
+    EnigmaWriter(Writer out, MachineSpec spec, MachineCursor cursor,
+                 boolean skip) {
+        _out = out;
+        _spec = spec;
+        _cursor = cursor;
+        _alphabet = spec.alphabet();
+        _skip = skip;
+        _buffer = new char[BUFFER_SIZE];
+    }
+
+    /** A writer of converted text, as for EnigmaWriter(Writer,
+     *  MachineSpec, MachineCursor, boolean), to CHANNEL in CHARSET
+     *  (unmappable characters being replaced). */
+    EnigmaWriter(WritableByteChannel channel, Charset charset,
+                 MachineSpec spec, MachineCursor cursor, boolean skip) {
+        this(Channels.newWriter(channel, charset.newEncoder()
+                                .onMalformedInput(CodingErrorAction.REPLACE)
+                                .onUnmappableCharacter(
+                                    CodingErrorAction.REPLACE), -1),
+             spec, cursor, skip);
+    }
+
+    @Override
+    public void write(char[] cbuf, int off, int len) throws IOException {
+        ensureOpen();
+        while (len > 0) {
+            if (_count == _buffer.length) {
+                drain();
+            }
+            int n = Math.min(len, _buffer.length - _count);
+            int start = _count;
+            if (_skip) {
+                for (int x = off; x < off + n; x += 1) {
+                    if (_alphabet.contains(cbuf[x])) {
+                        _buffer[_count] = cbuf[x];
+                        _count += 1;
+                    }
+                }
+            } else {
+                System.arraycopy(cbuf, off, _buffer, start, n);
+                _count += n;
+            }
+            try {
+                _spec.convert(_cursor, _buffer, start, _count - start,
+                              _buffer, start);
+            } catch (EnigmaException excp) {
+                _count = start;
+                throw excp;
+            }
+            off += n;
+            len -= n;
+        }
+    }
+
+    @Override
+    public void write(int c) throws IOException {
+        write(new char[] { (char) c }, 0, 1);
+    }
+
+    @Override
+    public void flush() throws IOException {
+        ensureOpen();
+        drain();
+        _out.flush();
+    }
+
+    @Override
+    public void close() throws IOException {
+        if (_out != null) {
+            try {
+                flush();
+            } finally {
+                _out.close();
+                _out = null;
+            }
+        }
+    }
+
+    /** Pass my buffered text on to my destination. */
+    private void drain() throws IOException {
+        _out.write(_buffer, 0, _count);
+        _count = 0;
+    }
+
+    /** Throw an IOException if I have been closed. */
+    private void ensureOpen() throws IOException {
+        if (_out == null) {
+            throw new IOException("Stream closed");
+        }
+    }
+
+    /** Size of the buffer of converted text. */
+    private static final int BUFFER_SIZE = 1 << 13;
+
+    /** Destination of the converted text, or null once I am closed. */
+    private Writer _out;
+
+    /** Configuration of the machine. */
+    private final MachineSpec _spec;
+
+    /** Rotor positions of the machine. */
+    private final MachineCursor _cursor;
+
+    /** Its alphabet. */
+    private final Alphabet _alphabet;
+
+    /** True iff characters outside the alphabet are skipped. */
+    private final boolean _skip;
+
+    /** Converted text not yet passed on. */
+    private final char[] _buffer;
+
+    /** Number of characters in _buffer. */
+    private int _count;
+}
@@ -0,0 +1,68 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Escapes by which configuration files and settings lines name
+ *  characters that cannot be written as themselves, such as the control
+ *  characters and punctuation of the byte alphabet used by ByteMachine:
+ *  \xHH denotes the character with hexadecimal code HH, and a backslash
+ *  followed by u and four hexadecimal digits denotes the character with
+ *  that code.  A backslash can never be written as itself, since no
+ *  alphabet line may contain one.
+ *  @author Abel Yagubyan
+ */
+final class Escapes {
+
+    /** Not instantiable. */
+    private Escapes() {
+    }
+
+    /** Return TEXT with each of its escapes replaced by the character it
+     *  denotes. */
+    static String decode(String text) {
+        if (text.indexOf('\\') == -1) {
+            return text;
+        }
+        StringBuilder result = new StringBuilder(text.length());
+        for (int x = 0; x < text.length(); x += length(text, x)) {
+            result.append(charAt(text, x));
+        }
+        return result.toString();
+    }
+
+    /** Return the character written at TEXT[X], which is either the
+     *  character itself or the start of an escape. */
+    static char charAt(String text, int x) {
+        char ch = text.charAt(x);
+        if (ch != '\\') {
+            return ch;
+        }
+        int end = x + length(text, x);
+        int code = 0;
+        for (int k = x + 2; k < end; k += 1) {
+            int digit = Character.digit(text.charAt(k), 16);
+            if (digit == -1) {
+                throw error("The escape %s is invalid!",
+                            text.substring(x, end));
+            }
+            code = code * 16 + digit;
+        }
+        return (char) code;
+    }
+
+    /** Return the number of characters of TEXT taken by the character or
+     *  escape written at TEXT[X]. */
+    static int length(String text, int x) {
+        if (text.charAt(x) != '\\') {
+            return 1;
+        }
+        int digits = x + 1 == text.length() ? 0
+            : text.charAt(x + 1) == 'x' ? 2
+            : text.charAt(x + 1) == 'u' ? 4 : 0;
+        if (digits == 0 || x + 2 + digits > text.length()) {
+            throw error("The escape %s is invalid!",
+                        text.substring(x, Math.min(text.length(), x + 2)));
+        }
+        return 2 + digits;
+    }
+}
@@ -0,0 +1,92 @@
+package enigma;
+
+import static enigma.EnigmaException.*;
+
+/** Formats converted message text into groups of a fixed number of
+ *  characters, each full group followed by a separator (by default, five
+ *  characters and a space).  Text is copied a run at a time from the
+ *  caller's buffer into another; nothing is allocated per character or
+ *  per line.  A formatter keeps track of its place in the current group,
+ *  so a line may be formatted in any number of pieces.
+ *  @author Abel Yagubyan
+ */
+final class GroupFormatter {
+
+    /** A formatter putting SEPARATOR after every GROUPSIZE characters of a
+     *  line, or never if GROUPSIZE is 0. */
+    GroupFormatter(int groupSize, String separator) {
+        if (groupSize < 0) {
+            throw error("The group size can't be negative!");
+        }
+        _group = groupSize;
+        _separator = separator.toCharArray();
+    }
+
+    /** Return a formatter with my group size and separator, at the same
+     *  place in a group as I am. */
+    GroupFormatter copy() {
+        GroupFormatter result = new GroupFormatter(_group, "");
+        result._separator = _separator;
+        result._column = _column;
+        return result;
+    }
+
+    /** Start a new line. */
+    void startLine() {
+        _column = 0;
+    }
+
+    /** Return the most characters that formatting LEN characters can
+     *  produce. */
+    int maxLength(int len) {
+        return _group == 0 ? len
+            : len + (len / _group + 1) * _separator.length;
+    }
+
+    /** Format the LEN characters of IN starting at OFF into OUT starting
+     *  at OUTOFF, which must have room for maxLength(LEN) characters.
+     *  Returns the number of characters written. */
+    int format(char[] in, int off, int len, char[] out, int outOff) {
+        if (_group == 0) {
+            System.arraycopy(in, off, out, outOff, len);
+            return len;
+        }
+        int n = outOff;
+        for (int end = off + len; off < end; ) {
+            int run = Math.min(_group - _column, end - off);
+            System.arraycopy(in, off, out, n, run);
+            n += run;
+            off += run;
+            _column += run;
+            if (_column == _group) {
+                System.arraycopy(_separator, 0, out, n, _separator.length);
+                n += _separator.length;
+                _column = 0;
+            }
+        }
+        return n - outOff;
+    }
+
+    /** Move past LEN characters of the current line as if they had been
+     *  formatted. */
+    void skip(int len) {
+        if (_group != 0) {
+            _column = (int) ((_column + (long) len) % _group);
+        }
+    }
+
+    /** The group size used by Main unless configured otherwise. */
+    static final int DEFAULT_GROUP = 5;
+
+    /** The separator used by Main unless configured otherwise. */
+    static final String DEFAULT_SEPARATOR = " ";
+
+    /** Number of characters per group, or 0 for no grouping. */
+    private final int _group;
+
+    /** Characters following each full group. */
+    private char[] _separator;
+
+    /** Number of characters of the current group already formatted. */
+    private int _column;
+}
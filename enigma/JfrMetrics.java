@@ -0,0 +1,123 @@
+package enigma;
+
+import jdk.jfr.Category;
+import jdk.jfr.Description;
+import jdk.jfr.Event;
+import jdk.jfr.FlightRecorder;
+import jdk.jfr.Label;
+import jdk.jfr.Name;
+import jdk.jfr.Period;
+import jdk.jfr.StackTrace;
+import jdk.jfr.Timespan;
+
+/** Metrics reported to JDK Flight Recorder, as well as kept in memory as
+ *  by RecordingMetrics.  Each stage commits an event of its own type
+ *  (enigma.Config, enigma.Message and enigma.Output) carrying the time
+ *  taken and the amount handled, and an enigma.Counters event with the
+ *  counters' totals is emitted periodically.  Events cost next to
+ *  nothing unless a recording has enabled them.
+ *  @author Abel Yagubyan
+ */
+final class JfrMetrics extends RecordingMetrics {
+
+    /** Metrics reporting to JFR. */
+    JfrMetrics() {
+        FlightRecorder.addPeriodicEvent(CountersEvent.class, () -> {
+            CountersEvent event = new CountersEvent();
+            event.characters = total(Counter.CHARACTERS);
+            event.messages = total(Counter.MESSAGES);
+            event.settingsLines = total(Counter.SETTINGS_LINES);
+            event.reconfigurations = total(Counter.RECONFIGURATIONS);
+            event.machineHits = total(Counter.MACHINE_HITS);
+            event.machineMisses = total(Counter.MACHINE_MISSES);
+            event.commit();
+        });
+    }
+
+    @Override
+    public void end(Stage stage, long start, long amount) {
+        super.end(stage, start, amount);
+        StageEvent event;
+        switch (stage) {
+        case CONFIG:
+            event = new ConfigEvent();
+            break;
+        case MESSAGE:
+            event = new MessageEvent();
+            break;
+        default:
+            event = new OutputEvent();
+            break;
+        }
+        if (event.isEnabled()) {
+            event.elapsed = System.nanoTime() - start;
+            event.amount = amount;
+            event.commit();
+        }
+    }
+
+    /** An event marking the end of a stage. */
+    @Category("Enigma")
+    @StackTrace(false)
+    abstract static class StageEvent extends Event {
+        /** Time taken by the stage. */
+        @Label("Elapsed")
+        @Timespan(Timespan.NANOSECONDS)
+        long elapsed;
+
+        /** Characters or bytes handled. */
+        @Label("Amount")
+        long amount;
+    }
+
+    /** A configuration file has been read. */
+    @Name("enigma.Config")
+    @Label("Configuration Read")
+    static final class ConfigEvent extends StageEvent {
+    }
+
+    /** A message has been converted. */
+    @Name("enigma.Message")
+    @Label("Message Converted")
+    @Description("A message line (or pipeline segment) was converted")
+    static final class MessageEvent extends StageEvent {
+    }
+
+    /** A buffer of output has been written. */
+    @Name("enigma.Output")
+    @Label("Output Written")
+    static final class OutputEvent extends StageEvent {
+    }
+
+    /** Totals of the counters. */
+    @Name("enigma.Counters")
+    @Label("Enigma Counters")
+    @Category("Enigma")
+    @Period("1 s")
+    @StackTrace(false)
+    static final class CountersEvent extends Event {
+        /** Characters converted. */
+        @Label("Characters")
+        long characters;
+
+        /** Messages converted. */
+        @Label("Messages")
+        long messages;
+
+        /** Settings lines read. */
+        @Label("Settings Lines")
+        long settingsLines;
+
+        /** Reconfigurations. */
+        @Label("Reconfigurations")
+        long reconfigurations;
+
+        /** Machines found in a machine cache. */
+        @Label("Machine Cache Hits")
+        long machineHits;
+
+        /** Machines built on a machine cache miss. */
+        @Label("Machine Cache Misses")
+        long machineMisses;
+    }
+}
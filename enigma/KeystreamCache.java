@@ -0,0 +1,311 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Objects;
+
+import static enigma.EnigmaException.*;
+
+/** A cache of keystreams: for a rotor order, plugboard and start
+ *  setting, the substitution performed at each key press, as one table
+ *  per position.  After a settings line the rotor states are eventually
+ *  periodic (a short run-in, caused by double stepping, followed by a
+ *  cycle of at most size**pawls states), so a keystream covering the
+ *  run-in and one period covers messages of any length.  When that is
+ *  longer than the cache's window, only the window is tabulated, and
+ *  positions beyond it are converted by the machine.  A keystream is only
+ *  built the second time its key is asked for, since a table costs a
+ *  conversion per character of the alphabet for each position; its
+ *  tables are then filled in as positions are first used.  The least
+ *  recently used keys are dropped once the tables would exceed the
+ *  cache's budget.  A cache may be used from any thread.
+ *  @author Abel Yagubyan
+ */
+final class KeystreamCache {
+
+    /** A cache whose tables hold at most BUDGET entries in all,
+     *  tabulating at most WINDOW positions of each keystream. */
+    KeystreamCache(long budget, int window) {
+        if (budget <= 0 || window <= 0) {
+            throw error("The cache must have room for a keystream!");
+        }
+        _budget = budget;
+        _window = window;
+        _keystreams = new LinkedHashMap<>(16, 0.75f, true);
+    }
+
+    /** Return the keystream of SPEC from the setting of CURSOR, or null
+     *  if its key has not been asked for before (in which case the key is
+     *  remembered, so that the next request builds the keystream).  The
+     *  keystream is built outside my lock, so that finding its period
+     *  does not hold up other keys; should two threads build the same
+     *  one at once, the first to finish is kept. */
+    Keystream get(MachineSpec spec, MachineCursor cursor) {
+        Key key = new Key(spec, cursor);
+        synchronized (this) {
+            if (!_keystreams.containsKey(key)) {
+                _keystreams.put(key, null);
+                trim();
+                return null;
+            }
+            Keystream found = _keystreams.get(key);
+            if (found != null) {
+                return found;
+            }
+        }
+        Keystream result = new Keystream(spec, cursor, _window);
+        if (result.cost() <= _budget) {
+            synchronized (this) {
+                Keystream found = _keystreams.get(key);
+                if (found != null) {
+                    return found;
+                }
+                _keystreams.put(key, result);
+                _used += result.cost();
+                trim();
+            }
+        }
+        return result;
+    }
+
+    /** Drop my least recently used keys until I am within my limits. */
+    private void trim() {
+        while (_used > _budget || _keystreams.size() > MAX_KEYS) {
+            Map.Entry<Key, Keystream> eldest =
+                _keystreams.entrySet().iterator().next();
+            if (eldest.getValue() != null) {
+                _used -= eldest.getValue().cost();
+            }
+            _keystreams.remove(eldest.getKey());
+        }
+    }
+
+    /** The substitutions made by a machine from one setting onwards. */
+    static final class Keystream {
+
+        /** The keystream of SPEC from the setting of CURSOR, tabulating at
+         *  most WINDOW positions. */
+        Keystream(MachineSpec spec, MachineCursor cursor, int window) {
+            _spec = spec;
+            _alphabet = spec.alphabet();
+            _size = _alphabet.size();
+            window = Math.min(window, Integer.MAX_VALUE / _size);
+            _start = cursor.copy();
+            MachineCursor tortoise = _start.copy();
+            spec.step(tortoise);
+            MachineCursor hare = tortoise.copy();
+            spec.step(hare);
+            int power = 1, period = 1;
+            while (!Arrays.equals(tortoise.positions(), hare.positions())
+                   && period <= window) {
+                if (power == period) {
+                    tortoise = hare.copy();
+                    power *= 2;
+                    period = 0;
+                }
+                spec.step(hare);
+                period += 1;
+            }
+            int runIn = 0;
+            if (period <= window) {
+                tortoise = _start.copy();
+                spec.step(tortoise);
+                hare = tortoise.copy();
+                spec.advanceBy(hare, period);
+                while (!Arrays.equals(tortoise.positions(), hare.positions())
+                       && runIn + period <= window) {
+                    spec.step(tortoise);
+                    spec.step(hare);
+                    runIn += 1;
+                }
+            }
+            if (runIn + period <= window) {
+                _runIn = runIn;
+                _period = period;
+                _length = runIn + period;
+            } else {
+                _runIn = window;
+                _period = 0;
+                _length = window;
+            }
+            _table = new char[Math.min(_length, INITIAL_LENGTH) * _size];
+            _next = _start.copy();
+        }
+
+        /** Return true iff my tables cover every position. */
+        boolean periodic() {
+            return _period > 0;
+        }
+
+        /** Return the number of positions I tabulate. */
+        int length() {
+            return _length;
+        }
+
+        /** Convert the LEN characters of IN starting at OFF, which are
+         *  those at POSITION onwards of a message begun at my start
+         *  setting (numbering from 0), storing the results in OUT starting
+         *  at OUTOFF.  The whole range is checked against my alphabet
+         *  first.  OUT may be IN, provided that OUTOFF <= OFF. */
+        void convert(long position, char[] in, int off, int len,
+                     char[] out, int outOff) {
+            Objects.checkFromIndexSize(off, len, in.length);
+            Objects.checkFromIndexSize(outOff, len, out.length);
+            if (position < 0) {
+                throw error("The position can't be negative!");
+            }
+            for (int x = off; x < off + len; x += 1) {
+                if (!_alphabet.contains(in[x])) {
+                    throw error("The value isn't part of the alphabet!");
+                }
+            }
+            int done = 0;
+            long p = position;
+            if (p >= _length && periodic()) {
+                p = _runIn + (p - _runIn) % _period;
+            }
+            if (p < _length) {
+                char[] table = fill((int) Math.min(position + len, _length));
+                for (; done < len && p < _length; done += 1) {
+                    int k = (int) p * _size + _alphabet.toInt(in[off + done]);
+                    out[outOff + done] = _alphabet.toChar(table[k]);
+                    p += 1;
+                    if (p == _length && periodic()) {
+                        p = _runIn;
+                    }
+                }
+            }
+            if (done < len) {
+                MachineCursor cursor = _start.copy();
+                _spec.advanceBy(cursor, position + done);
+                _spec.convert(cursor, in, off + done, len - done, out,
+                              outOff + done);
+            }
+        }
+
+        /** Return the most table entries I will hold. */
+        long cost() {
+            return (long) _length * _size;
+        }
+
+        /** Return my table, with at least its first POSITIONS positions
+         *  filled in. */
+        private synchronized char[] fill(int positions) {
+            if (positions > _filled) {
+                if (positions * _size > _table.length) {
+                    int grown = Math.max(positions, 2 * _table.length / _size);
+                    _table = Arrays.copyOf(_table,
+                                           Math.min(grown, _length) * _size);
+                }
+                for (int p = _filled; p < positions; p += 1) {
+                    _spec.step(_next);
+                    for (int c = 0; c < _size; c += 1) {
+                        _table[p * _size + c] =
+                            (char) _spec.substitute(_next, c);
+                    }
+                }
+                _filled = positions;
+            }
+            return _table;
+        }
+
+        /** Positions tabulated when a keystream is first built. */
+        private static final int INITIAL_LENGTH = 1 << 8;
+
+        /** Configuration of the machine. */
+        private final MachineSpec _spec;
+
+        /** Its alphabet. */
+        private final Alphabet _alphabet;
+
+        /** Size of its alphabet. */
+        private final int _size;
+
+        /** A cursor at my start setting, never moved. */
+        private final MachineCursor _start;
+
+        /** Number of positions before the rotor states start to repeat (or
+         *  the number tabulated, if they repeat too late). */
+        private final int _runIn;
+
+        /** Number of positions in each repetition, or 0 if I am not
+         *  periodic. */
+        private final int _period;
+
+        /** Number of positions tabulated. */
+        private final int _length;
+
+        /** Entry P * size + C is the image of C at position P. */
+        private char[] _table;
+
+        /** Number of positions filled in. */
+        private int _filled;
+
+        /** A cursor at the state of position _filled - 1. */
+        private final MachineCursor _next;
+    }
+
+    /** What identifies a keystream: the wirings in each slot, the
+     *  plugboard and the start setting. */
+    private static final class Key {
+
+        /** The key of SPEC from the setting of CURSOR. */
+        Key(MachineSpec spec, MachineCursor cursor) {
+            _slots = new Wiring[spec.numRotors()];
+            _start = new int[spec.numRotors()];
+            for (int x = 0; x < _slots.length; x += 1) {
+                _slots[x] = spec.slot(x);
+                _start[x] = cursor.setting(x);
+            }
+            _plugboard = spec.plugboard();
+            _hash = Objects.hash(Arrays.hashCode(_slots),
+                                 Arrays.hashCode(_start),
+                                 Arrays.hashCode(_plugboard));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Key)) {
+                return false;
+            }
+            Key other = (Key) obj;
+            return Arrays.equals(_slots, other._slots)
+                && Arrays.equals(_start, other._start)
+                && Arrays.equals(_plugboard, other._plugboard);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Wiring of each slot. */
+        private final Wiring[] _slots;
+
+        /** Start setting of each slot. */
+        private final int[] _start;
+
+        /** Plugboard table. */
+        private final int[] _plugboard;
+
+        /** My hash code. */
+        private final int _hash;
+    }
+
+    /** Most keys remembered, whether or not their keystreams have been
+     *  built. */
+    private static final int MAX_KEYS = 1 << 12;
+
+    /** Most table entries held in all. */
+    private final long _budget;
+
+    /** Most positions tabulated per keystream. */
+    private final int _window;
+
+    /** Table entries that my keystreams may grow to. */
+    private long _used;
+
+    /** My keystreams, least recently used first. */
+    private final LinkedHashMap<Key, Keystream> _keystreams;
+}
@@ -1,9 +1,11 @@
 package enigma;
+import java.nio.CharBuffer;
 import java.util.Collection;
 import java.util.ArrayList;
 import java.util.Map;
 import java.util.List;
 import java.util.HashMap;
+import java.util.concurrent.ForkJoinPool;
 import static enigma.EnigmaException.*;
 
 /** Class that represents a complete enigma machine.
@@ -41,9 +43,12 @@ class Machine {
      *  available rotors (ROTORS[0] names the reflector).
      *  Initially, all rotors are set at their 0 setting. */
     void insertRotors(String[] rotors) {
+        Metrics.current().count(Metrics.Counter.RECONFIGURATIONS, 1);
         if (rotors.length > 0) {
             int val = 0;
             rotcoll.clear();
+            _spec = null;
+            _compiled = null;
             for (String x : rotors) {
                 x = x.toUpperCase();
                 if (rotcoll.contains(x)) {
@@ -77,6 +82,8 @@ class Machine {
         if (setting.length() != numRotors() - 1) {
             throw error("The setting's length is incorrect!");
         }
+        Metrics.current().count(Metrics.Counter.RECONFIGURATIONS, 1);
+        _compiled = null;
         for (int x = 1; x < _rotnum; x += 1) {
             if (!_alphabet.contains(strchar[x - 1])) {
                 throw error("The setting contains an invalid value!");
@@ -87,7 +94,10 @@ class Machine {
 
     /** Set the plugboard to PLUGBOARD. */
     void setPlugboard(Permutation plugboard) {
+        Metrics.current().count(Metrics.Counter.RECONFIGURATIONS, 1);
         this._pboard = plugboard;
+        _spec = null;
+        _compiled = null;
     }
 
     /** Returns the result of converting the input character C (as an
@@ -120,20 +130,100 @@ class Machine {
             c = rotcoll.get(x).convertBackward(c);
         }
         c = _pboard.invert(c);
+        Metrics.current().count(Metrics.Counter.CHARACTERS, 1);
         return c;
     }
 
     /** Returns the encoding/decoding of MSG, updating the state of
      *  the rotors accordingly. */
     String convert(String msg) {
-        String str = "";
-        for (char ch : msg.toCharArray()) {
-            if (!_alphabet.contains(ch)) {
-                throw error("The value isn't part of the alphabet!");
+        char[] buf = msg.toCharArray();
+        convert(buf, 0, buf.length, buf, 0);
+        return new String(buf);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF into OUT starting
+     *  at OUTOFF, updating the state of the rotors accordingly.  The whole
+     *  range is checked against my alphabet before any rotor moves.  OUT
+     *  may be IN, provided that OUTOFF <= OFF. */
+    void convert(char[] in, int off, int len, char[] out, int outOff) {
+        CompiledMachine engine = engine();
+        engine.convert(in, off, len, out, outOff);
+        engine.store(rotcoll);
+        Metrics.current().count(Metrics.Counter.CHARACTERS, len);
+    }
+
+    /** Convert all remaining characters of IN into OUT, advancing the
+     *  positions of both buffers and the state of the rotors. */
+    void convert(CharBuffer in, CharBuffer out) {
+        CompiledMachine engine = engine();
+        int len = in.remaining();
+        engine.convert(in, out);
+        engine.store(rotcoll);
+        Metrics.current().count(Metrics.Counter.CHARACTERS, len);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF into OUT starting
+     *  at OUTOFF as the sequential version does, but spreading the work
+     *  over the threads of POOL.  OUT may be IN, provided that
+     *  OUTOFF == OFF. */
+    void convert(char[] in, int off, int len, char[] out, int outOff,
+                 ForkJoinPool pool) {
+        CompiledMachine engine = engine();
+        ParallelConverter.convert(engine, in, off, len, out, outOff, pool);
+        engine.store(rotcoll);
+        Metrics.current().count(Metrics.Counter.CHARACTERS, len);
+    }
+
+    /** Advance my rotors as N conversions would, without stepping through
+     *  each of them. */
+    void advanceBy(long n) {
+        CompiledMachine engine = engine();
+        engine.advanceBy(n);
+        engine.store(rotcoll);
+    }
+
+    /** Return my cached compiled engine, brought up to date with the
+     *  current settings of my rotors. */
+    private CompiledMachine engine() {
+        if (_compiled == null) {
+            _compiled = compile();
+        } else {
+            _compiled.load(rotcoll);
+        }
+        return _compiled;
+    }
+
+    /** Return a compiled snapshot of my current rotors, settings and
+     *  plugboard.  Converting with the result does not move my rotors,
+     *  and later changes to me do not affect it. */
+    CompiledMachine compile() {
+        return new CompiledMachine(spec(), cursor());
+    }
+
+    /** Return the immutable configuration of my current rotors and
+     *  plugboard.  It is shared by every snapshot taken until my rotors or
+     *  plugboard are changed, and may be used from any thread. */
+    MachineSpec spec() {
+        if (_spec == null) {
+            Wiring[] slots = new Wiring[rotcoll.size()];
+            for (int x = 0; x < slots.length; x += 1) {
+                Rotor rotor = rotcoll.get(x);
+                slots[x] = _wirings.computeIfAbsent(
+                        rotor.name().toUpperCase(), k -> new Wiring(rotor));
             }
-            str += _alphabet.toChar(convert(_alphabet.toInt(ch)));
+            _spec = new MachineSpec(_alphabet, slots, _pawlcount, _pboard);
         }
-        return str;
+        return _spec;
+    }
+
+    /** Return a new cursor on spec() at my rotors' current settings. */
+    MachineCursor cursor() {
+        int[] settings = new int[rotcoll.size()];
+        for (int x = 0; x < settings.length; x += 1) {
+            settings[x] = rotcoll.get(x).setting();
+        }
+        return spec().cursor(settings);
     }
 
     /** @return Gets the list of rotors used. */
@@ -169,5 +259,16 @@ class Machine {
     /** Used Rotor Collection.*/
     private List<Rotor> rotcoll;
 
+    /** Compiled form of my current configuration used by the bulk
+     *  conversions, or null if it must be rebuilt. */
+    private CompiledMachine _compiled;
+
+    /** Configuration of my current rotors and plugboard, or null if it
+     *  must be rebuilt. */
+    private MachineSpec _spec;
+
+    /** Wirings of the rotors built so far, by upper-case name. */
+    private final Map<String, Wiring> _wirings = new HashMap<>();
+
 
 }
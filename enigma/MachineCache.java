@@ -0,0 +1,128 @@
+package enigma;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import static enigma.EnigmaException.*;
+
+/** A bounded cache of the machines set up by settings lines, for input
+ *  that keeps switching among a few keys.  A machine is identified by
+ *  its settings line in normal form: the rotor names in upper case, the
+ *  settings, and the plugboard's cycles with runs of whitespace made
+ *  single spaces.  A hit returns the machine's spec, shared by every
+ *  hit, with a fresh cursor at its start setting, so that neither the
+ *  plugboard nor the rotor order nor the settings are parsed or checked
+ *  again.  Once the cache is full, the least recently used machine is
+ *  dropped.  Lines that are in error are never cached, and so report
+ *  their errors every time.  A cache may be used from any thread.
+ *  @author Abel Yagubyan
+ */
+final class MachineCache {
+
+    /** A cache of at most CAPACITY machines built from LIBRARY. */
+    MachineCache(RotorLibrary library, int capacity) {
+        if (capacity <= 0) {
+            throw error("The cache must have room for a machine!");
+        }
+        _library = library;
+        _capacity = capacity;
+        _machines = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(
+                Map.Entry<String, CompiledMachine> eldest) {
+                return size() > _capacity;
+            }
+        };
+    }
+
+    /** Return a machine holding the rotors named ROTORS (the reflector
+     *  first) at the settings SETTING, read as settings characters of my
+     *  library, and a plugboard with the cycles PLUGBOARD, as checked by
+     *  RotorLibrary.spec and SettingsLine.cursor.  The machine's cursor
+     *  is its own, at its start setting. */
+    CompiledMachine get(String[] rotors, String setting, String plugboard) {
+        Metrics metrics = Metrics.current();
+        String key = key(rotors, setting, plugboard);
+        CompiledMachine start;
+        synchronized (this) {
+            start = _machines.get(key);
+            if (start != null) {
+                _hits += 1;
+            }
+        }
+        if (start != null) {
+            metrics.count(Metrics.Counter.MACHINE_HITS, 1);
+            return start.copy();
+        }
+        MachineSpec spec = _library.spec(
+            rotors, Cycles.parse(plugboard, _library.alphabet()));
+        start = new CompiledMachine(
+            spec, SettingsLine.cursor(spec, _library, setting));
+        synchronized (this) {
+            _misses += 1;
+            _machines.put(key, start);
+        }
+        metrics.count(Metrics.Counter.MACHINE_MISSES, 1);
+        return start.copy();
+    }
+
+    /** Return the number of machines found in me. */
+    synchronized long hits() {
+        return _hits;
+    }
+
+    /** Return the number of machines built because they were not in
+     *  me. */
+    synchronized long misses() {
+        return _misses;
+    }
+
+    /** Return the number of machines I hold. */
+    synchronized int size() {
+        return _machines.size();
+    }
+
+    /** Return the normal form of the settings line with the rotors
+     *  ROTORS, the settings SETTING and the plugboard PLUGBOARD.  The
+     *  settings are prefixed by their length, since decoded Escapes may
+     *  make them contain any character. */
+    private static String key(String[] rotors, String setting,
+                              String plugboard) {
+        StringBuilder result = new StringBuilder();
+        for (String name : rotors) {
+            result.append(name.toUpperCase()).append(' ');
+        }
+        result.append('\0').append(setting.length()).append(':')
+            .append(setting);
+        boolean space = false, first = true;
+        for (int x = 0; x < plugboard.length(); x += 1) {
+            char ch = plugboard.charAt(x);
+            if (Character.isWhitespace(ch)) {
+                space = true;
+            } else {
+                if (space && !first) {
+                    result.append(' ');
+                }
+                space = first = false;
+                result.append(ch);
+            }
+        }
+        return result.toString();
+    }
+
+    /** Library from which machines are built. */
+    private final RotorLibrary _library;
+
+    /** Most machines held. */
+    private final int _capacity;
+
+    /** Number of machines found. */
+    private long _hits;
+
+    /** Number of machines built. */
+    private long _misses;
+
+    /** A machine at its start setting for each key, least recently used
+     *  first.  Their cursors are never moved. */
+    private final LinkedHashMap<String, CompiledMachine> _machines;
+}
@@ -0,0 +1,46 @@
+package enigma;
+
+/** The rotor positions of one session on a MachineSpec.  A cursor is the
+ *  only mutable part of a configured machine; it is not safe to use one
+ *  cursor from several threads at once, but any number of cursors may
+ *  share a spec.
+ *  @author Abel Yagubyan
+ */
+final class MachineCursor {
+
+    /** A cursor at positions POS, CORE being the spec's composed table of
+     *  its non-moving slots at those positions. */
+    MachineCursor(int[] pos, int[] core) {
+        _pos = pos;
+        _core = core;
+    }
+
+    /** Return the setting of slot K. */
+    int setting(int k) {
+        return _pos[k];
+    }
+
+    /** Return a cursor at my current positions that moves independently
+     *  of me. */
+    MachineCursor copy() {
+        return new MachineCursor(_pos.clone(), _core);
+    }
+
+    /** Return my positions, indexed by slot.  Changes to the result move
+     *  me; only the moving slots may be changed. */
+    int[] positions() {
+        return _pos;
+    }
+
+    /** Return the composed table of my spec's non-moving slots at my
+     *  positions.  The caller must not modify it. */
+    int[] core() {
+        return _core;
+    }
+
+    /** Current position of each slot. */
+    private final int[] _pos;
+
+    /** Composed table of the non-moving slots. */
+    private final int[] _core;
+}
@@ -0,0 +1,483 @@
+package enigma;
+
+import java.nio.BufferOverflowException;
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.Objects;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+import static enigma.EnigmaException.*;
+
+/** The immutable configuration of an Enigma machine: its alphabet, the
+ *  wirings of the rotors in its slots (slot 0 holding the reflector),
+ *  its plugboard and its number of pawls, all flattened into primitive
+ *  tables.  Rotor positions are not part of a MachineSpec; they are held
+ *  by MachineCursors, so any number of threads may convert with one spec
+ *  at once, each through its own cursor.  The slots that can never move
+ *  (the reflector and any fixed rotors beside it, such as Beta or Gamma)
+ *  are pre-composed into a single table per setting of those rotors.
+ *  Stepping follows Machine.convert exactly, including double stepping.
+ *  @author Abel Yagubyan
+ */
+final class MachineSpec {
+
+    /** A machine over ALPHA with PAWLS pawls whose slots hold the rotors
+     *  wired as in SLOTS (SLOTS[0] being the reflector), and whose
+     *  plugboard is PLUGBOARD. */
+    MachineSpec(Alphabet alpha, Wiring[] slots, int pawls,
+                Permutation plugboard) {
+        this(alpha, slots, pawls, Cycles.table(plugboard));
+    }
+
+    /** A machine over ALPHA with PAWLS pawls whose slots hold the rotors
+     *  wired as in SLOTS (SLOTS[0] being the reflector), and whose
+     *  plugboard maps index K to PLUGBOARD[K]. */
+    MachineSpec(Alphabet alpha, Wiring[] slots, int pawls, int[] plugboard) {
+        if (slots.length == 0) {
+            throw error("No rotors have been inserted!");
+        }
+        _alphabet = alpha;
+        _size = alpha.size();
+        _numRotors = slots.length;
+        _pawls = pawls;
+        _slots = slots.clone();
+        _fwd = new int[_numRotors][];
+        _bwd = new int[_numRotors][];
+        _notch = new boolean[_numRotors][];
+        _rotates = new boolean[_numRotors];
+        int first = _numRotors;
+        for (int x = _numRotors - 1; x >= 0; x -= 1) {
+            _fwd[x] = slots[x].forward();
+            _bwd[x] = slots[x].backward();
+            _notch[x] = slots[x].notches();
+            _rotates[x] = slots[x].rotates();
+            if (_rotates[x]) {
+                first = x;
+            }
+        }
+        _first = first;
+        if (plugboard.length != _size) {
+            throw error("The plugboard doesn't fit the alphabet!");
+        }
+        _plug = plugboard.clone();
+        _plugInv = Cycles.inverse(_plug);
+        _toNotch = new int[_size];
+        boolean[] notches = _notch[_numRotors - 1];
+        for (int x = 2 * _size - 1, next = -1; x >= 0; x -= 1) {
+            if (notches[x % _size]) {
+                next = x;
+            }
+            if (x < _size) {
+                _toNotch[x] = next == -1 ? -1 : next - x;
+            }
+        }
+        long cores = 1;
+        for (int x = 1; x < _first && cores <= CORE_CACHE_LIMIT; x += 1) {
+            cores *= _size;
+        }
+        _cores = cores <= CORE_CACHE_LIMIT
+            ? new AtomicReferenceArray<>((int) cores) : null;
+    }
+
+    /** A machine like BASE but whose plugboard maps index K to
+     *  PLUGBOARD[K], sharing BASE's tables and cache of composed
+     *  tables. */
+    private MachineSpec(MachineSpec base, int[] plugboard) {
+        if (plugboard.length != base._size) {
+            throw error("The plugboard doesn't fit the alphabet!");
+        }
+        _alphabet = base._alphabet;
+        _size = base._size;
+        _numRotors = base._numRotors;
+        _pawls = base._pawls;
+        _slots = base._slots;
+        _fwd = base._fwd;
+        _bwd = base._bwd;
+        _notch = base._notch;
+        _rotates = base._rotates;
+        _first = base._first;
+        _toNotch = base._toNotch;
+        _cores = base._cores;
+        _plug = plugboard.clone();
+        _plugInv = Cycles.inverse(_plug);
+    }
+
+    /** Return a machine like me but with the plugboard mapping index K
+     *  to PLUGBOARD[K].  It shares my tables, so costs little more than
+     *  its plugboard. */
+    MachineSpec withPlugboard(int[] plugboard) {
+        return new MachineSpec(this, plugboard);
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots I have. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls I have. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the wiring of slot K. */
+    Wiring slot(int k) {
+        return _slots[k];
+    }
+
+    /** Return my plugboard as a table from each index to its image. */
+    int[] plugboard() {
+        return _plug.clone();
+    }
+
+    /** Return the index of my leftmost rotating slot.  The slots to its
+     *  left never move. */
+    int firstMoving() {
+        return _first;
+    }
+
+    /** Return a cursor with slot K at setting SETTINGS[K]. */
+    MachineCursor cursor(int[] settings) {
+        if (settings.length != _numRotors) {
+            throw error("The setting's length is incorrect!");
+        }
+        int[] pos = new int[_numRotors];
+        for (int x = 1; x < _numRotors; x += 1) {
+            pos[x] = Math.floorMod(settings[x], _size);
+        }
+        return new MachineCursor(pos, core(pos));
+    }
+
+    /** Return a cursor set according to SETTING, which must be a string
+     *  of numRotors()-1 characters in my alphabet, as for
+     *  Machine.setRotors. */
+    MachineCursor cursor(String setting) {
+        if (setting.length() != _numRotors - 1) {
+            throw error("The setting's length is incorrect!");
+        }
+        int[] pos = new int[_numRotors];
+        for (int x = 1; x < _numRotors; x += 1) {
+            char ch = setting.charAt(x - 1);
+            if (!_alphabet.contains(ch)) {
+                throw error("The setting contains an invalid value!");
+            }
+            pos[x] = _alphabet.toInt(ch);
+        }
+        return new MachineCursor(pos, core(pos));
+    }
+
+    /** Returns the result of converting the input character C (as an
+     *  index in the range 0..alphabet size - 1) at CURSOR, after first
+     *  advancing CURSOR. */
+    int convert(MachineCursor cursor, int c) {
+        int[] pos = cursor.positions();
+        step(pos);
+        return substitute(pos, cursor.core(), c);
+    }
+
+    /** Returns the encoding/decoding of MSG starting at CURSOR, advancing
+     *  CURSOR accordingly. */
+    String convert(MachineCursor cursor, String msg) {
+        char[] buf = msg.toCharArray();
+        convert(cursor, buf, 0, buf.length, buf, 0);
+        return new String(buf);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF, storing the
+     *  results in OUT starting at OUTOFF and advancing CURSOR
+     *  accordingly.  The whole range is checked against my alphabet
+     *  before CURSOR moves.  OUT may be IN, provided that
+     *  OUTOFF <= OFF. */
+    void convert(MachineCursor cursor, char[] in, int off, int len,
+                 char[] out, int outOff) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        for (int x = off; x < off + len; x += 1) {
+            if (!_alphabet.contains(in[x])) {
+                throw error("The value isn't part of the alphabet!");
+            }
+        }
+        convert(cursor.positions(), cursor.core(), in, off, len, out,
+                outOff);
+    }
+
+    /** Convert the LEN characters of IN starting at OFF, storing the
+     *  results in OUT starting at OUTOFF, with the rotors at positions
+     *  POS, which advance accordingly, as the MachineCursor overload
+     *  does.  POS holds a position in 0 .. alphabet size - 1 for each
+     *  slot; it lets a caller that keeps its positions elsewhere convert
+     *  in a buffer of its own rather than in a new cursor. */
+    void convert(int[] pos, char[] in, int off, int len, char[] out,
+                 int outOff) {
+        if (pos.length != _numRotors) {
+            throw error("The setting's length is incorrect!");
+        }
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        for (int x = off; x < off + len; x += 1) {
+            if (!_alphabet.contains(in[x])) {
+                throw error("The value isn't part of the alphabet!");
+            }
+        }
+        convert(pos, core(pos), in, off, len, out, outOff);
+    }
+
+    /** Convert all remaining characters of IN into OUT starting at
+     *  CURSOR, advancing the positions of both buffers and CURSOR.  The
+     *  whole of IN is checked against my alphabet before CURSOR moves or
+     *  either buffer changes. */
+    void convert(MachineCursor cursor, CharBuffer in, CharBuffer out) {
+        int len = in.remaining();
+        if (out.remaining() < len) {
+            throw new BufferOverflowException();
+        }
+        if (in.hasArray() && out.hasArray() && !out.isReadOnly()) {
+            convert(cursor, in.array(), in.arrayOffset() + in.position(),
+                    len, out.array(), out.arrayOffset() + out.position());
+        } else {
+            int start = in.position();
+            for (int x = start; x < start + len; x += 1) {
+                if (!_alphabet.contains(in.get(x))) {
+                    throw error("The value isn't part of the alphabet!");
+                }
+            }
+            int dest = out.position();
+            for (int x = 0; x < len; x += 1) {
+                out.put(dest + x, _alphabet.toChar(
+                        convert(cursor, _alphabet.toInt(in.get(start + x)))));
+            }
+        }
+        in.position(in.position() + len);
+        out.position(out.position() + len);
+    }
+
+    /** Advance CURSOR by one key press, as Machine.convert does. */
+    void step(MachineCursor cursor) {
+        step(cursor.positions());
+    }
+
+    /** Return the image of C under the substitution at CURSOR, without
+     *  advancing it. */
+    int substitute(MachineCursor cursor, int c) {
+        return substitute(cursor.positions(), cursor.core(), c);
+    }
+
+    /** Advance CURSOR as N key presses would, without converting
+     *  anything.  Stretches in which only the rightmost rotor moves are
+     *  skipped in one go, and whole revolutions of the rightmost rotor
+     *  are reduced modulo the period of the rotor states once that
+     *  period has been found. */
+    void advanceBy(MachineCursor cursor, long n) {
+        if (n < 0) {
+            throw error("The rotors can't be moved backwards!");
+        }
+        int[] pos = cursor.positions();
+        skip(pos, n % _size);
+        long revolutions = n / _size;
+        if (revolutions == 0) {
+            return;
+        }
+        int[] tortoise = pos.clone();
+        skip(pos, _size);
+        long done = 1;
+        int power = 1, period = 1;
+        while (done < revolutions) {
+            if (Arrays.equals(tortoise, pos)) {
+                long rest = (revolutions - done) % period;
+                for (long k = 0; k < rest; k += 1) {
+                    skip(pos, _size);
+                }
+                return;
+            }
+            if (power == period) {
+                System.arraycopy(pos, 0, tortoise, 0, _numRotors);
+                power *= 2;
+                period = 0;
+            }
+            skip(pos, _size);
+            done += 1;
+            period += 1;
+        }
+    }
+
+    /** Advance the rotors at positions POS by one key press. */
+    private void step(int[] pos) {
+        int last = _numRotors - 1;
+        int low = _numRotors - _pawls + 1;
+        boolean carry = _notch[last][pos[last]];
+        boolean stepped = _rotates[last];
+        if (stepped) {
+            advance(pos, last);
+        }
+        for (int x = last; x >= low; x -= 1) {
+            boolean nextCarry = _notch[x - 1][pos[x - 1]];
+            boolean next = false;
+            if (carry && _rotates[x - 1]) {
+                advance(pos, x - 1);
+                next = true;
+                if (!stepped) {
+                    advance(pos, x);
+                }
+            }
+            stepped = next;
+            carry = nextCarry;
+        }
+    }
+
+    /** Advance the rotors at positions POS as N key presses would, taking
+     *  one step at a time only where some rotor other than the rightmost
+     *  will move. */
+    private void skip(int[] pos, long n) {
+        int last = _numRotors - 1;
+        boolean triggers = last >= _numRotors - _pawls + 1
+            && _rotates[last - 1];
+        while (n > 0) {
+            if (!quiet(pos)) {
+                step(pos);
+                n -= 1;
+            } else if (!_rotates[last]) {
+                return;
+            } else {
+                long t = n;
+                int gap = _toNotch[pos[last]];
+                if (triggers && gap != -1) {
+                    t = Math.min(n, gap);
+                }
+                pos[last] = (int) ((pos[last] + t) % _size);
+                n -= t;
+            }
+        }
+    }
+
+    /** Return true iff the next step from positions POS will move only
+     *  the rightmost rotor. */
+    private boolean quiet(int[] pos) {
+        for (int x = _numRotors - 1; x > _numRotors - _pawls; x -= 1) {
+            if (_notch[x][pos[x]] && _rotates[x - 1]) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Convert the LEN characters of IN starting at OFF, already checked
+     *  against my alphabet, into OUT starting at OUTOFF, with the rotors
+     *  at positions POS, which advance accordingly, CORE being the
+     *  composed table of the non-moving slots at those positions. */
+    private void convert(int[] pos, int[] core, char[] in, int off,
+                         int len, char[] out, int outOff) {
+        for (int x = 0; x < len; x += 1) {
+            step(pos);
+            out[outOff + x] = _alphabet.toChar(
+                substitute(pos, core, _alphabet.toInt(in[off + x])));
+        }
+    }
+
+    /** Return the image of C with the rotors at positions POS, CORE being
+     *  the composed table of the non-moving slots at those positions. */
+    private int substitute(int[] pos, int[] core, int c) {
+        c = _plug[c];
+        for (int x = _numRotors - 1; x >= _first; x -= 1) {
+            c = through(_fwd[x], c, pos[x]);
+        }
+        c = core[c];
+        for (int x = _first; x < _numRotors; x += 1) {
+            c = through(_bwd[x], c, pos[x]);
+        }
+        return _plugInv[c];
+    }
+
+    /** Return the composition of the non-moving slots (forward, reflect,
+     *  backward) with those slots at positions POS. */
+    private int[] core(int[] pos) {
+        int index = 0;
+        for (int x = _first - 1; x >= 1; x -= 1) {
+            index = index * _size + pos[x];
+        }
+        int[] core = _cores == null ? null : _cores.get(index);
+        if (core == null) {
+            core = new int[_size];
+            for (int x = 0; x < _size; x += 1) {
+                int c = x;
+                for (int k = _first - 1; k >= 0; k -= 1) {
+                    c = through(_fwd[k], c, pos[k]);
+                }
+                for (int k = 1; k < _first; k += 1) {
+                    c = through(_bwd[k], c, pos[k]);
+                }
+                core[x] = c;
+            }
+            if (_cores != null) {
+                _cores.set(index, core);
+            }
+        }
+        return core;
+    }
+
+    /** Advance slot K of positions POS by one. */
+    private void advance(int[] pos, int k) {
+        int p = pos[k] + 1;
+        pos[k] = p == _size ? 0 : p;
+    }
+
+    /** Return the result of passing C through the wiring TABLE of a rotor
+     *  at setting POSN. */
+    private int through(int[] table, int c, int posn) {
+        int k = c + posn;
+        if (k >= _size) {
+            k -= _size;
+        }
+        k = table[k] - posn;
+        return k < 0 ? k + _size : k;
+    }
+
+    /** Most composed tables of the non-moving slots cached per spec. */
+    private static final int CORE_CACHE_LIMIT = 1 << 12;
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Size of my alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Number of pawls. */
+    private final int _pawls;
+
+    /** Wiring of each slot. */
+    private final Wiring[] _slots;
+
+    /** Index of the leftmost rotating slot. */
+    private final int _first;
+
+    /** Forward wiring of each slot at its 0 setting. */
+    private final int[][] _fwd;
+
+    /** Backward wiring of each slot at its 0 setting. */
+    private final int[][] _bwd;
+
+    /** Notch table of each slot. */
+    private final boolean[][] _notch;
+
+    /** True for each slot whose rotor rotates. */
+    private final boolean[] _rotates;
+
+    /** Entry K is the number of steps from setting K of the rightmost
+     *  slot to its next notch (0 if K is a notch), or -1 if it has
+     *  none. */
+    private final int[] _toNotch;
+
+    /** Plugboard and its inverse. */
+    private final int[] _plug, _plugInv;
+
+    /** Composed tables of the non-moving slots, indexed by the settings
+     *  of the fixed rotors among them, filled in as they are needed.
+     *  Null if there are too many combinations of settings to cache. */
+    private final AtomicReferenceArray<int[]> _cores;
+}
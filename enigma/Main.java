@@ -1,9 +1,14 @@
 package enigma;
 import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
 import java.io.IOException;
-import java.io.PrintStream;
-import java.util.Arrays;
+import java.nio.channels.FileChannel;
+import java.nio.file.Paths;
+import java.nio.file.StandardOpenOption;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.List;
 import java.util.NoSuchElementException;
 import java.util.Scanner;
@@ -16,13 +21,19 @@ public final class Main {
 
     /** Process a sequence of encryptions and decryptions, as
      *  specified by ARGS, where 1 <= ARGS.length <= 3.
-     *  ARGS[0] is the name of a configuration file.
+     *  ARGS[0] is the name of a configuration file, either text or an
+     *  image compiled by ConfigImage.
      *  ARGS[1] is optional; when present, it names an input file
      *  containing messages.  Otherwise, input comes from the standard
      *  input.  ARGS[2] is optional; when present, it names an output
      *  file for processed messages.  Otherwise, output goes to the
      *  standard output. Exits normally if there are no errors in the input;
-     *  otherwise with code 1. */
+     *  otherwise with code 1.  Setting the system property enigma.workers
+     *  to N > 1 converts messages on N threads (the output is unchanged),
+     *  with at most enigma.queue segments of input in flight.  Output is
+     *  grouped into enigma.group characters (5 by default; 0 for no
+     *  grouping) each followed by enigma.separator (by default a
+     *  space). */
     public static void main(String... args) {
         try {
             new Main(args).process();
@@ -50,21 +61,68 @@ public final class Main {
         if (args.length < 1 || args.length > 3) {
             throw error("Only 1, 2, or 3 command-line arguments allowed");
         }
-        _config = getInput(args[0]);
+        _keystreams = new KeystreamCache(KEYSTREAM_BUDGET, KEYSTREAM_WINDOW);
+        _workers = Integer.getInteger("enigma.workers", 1);
+        _queueDepth = Integer.getInteger("enigma.queue", 4 * _workers);
+        _format = new GroupFormatter(
+            Integer.getInteger("enigma.group", GroupFormatter.DEFAULT_GROUP),
+            System.getProperty("enigma.separator",
+                               GroupFormatter.DEFAULT_SEPARATOR));
+        _formatted = new char[_format.maxLength(_buffer.length)];
+        _configName = args[0];
         if (args.length > 1) {
-            _input = getInput(args[1]);
+            _input = getMessages(args[1]);
         } else {
-            _input = new Scanner(System.in);
+            _input = new MessageInput(
+                    new FileInputStream(FileDescriptor.in).getChannel());
         }
         if (args.length > 2) {
             _output = getOutput(args[2]);
         } else {
-            _output = System.out;
+            _output = new MessageOutput(
+                    new FileOutputStream(FileDescriptor.out).getChannel());
+        }
+    }
+
+    /** A Main that converts the messages in the file named INPUT into the
+     *  file named OUTPUT, as main does, with the machines of LIBRARY,
+     *  keeping keystreams in KEYSTREAMS.  It converts on the calling
+     *  thread only, whatever enigma.workers is. */
+    Main(RotorLibrary library, KeystreamCache keystreams, String input,
+         String output) {
+        _library = library;
+        _keystreams = keystreams;
+        _format = new GroupFormatter(
+            Integer.getInteger("enigma.group", GroupFormatter.DEFAULT_GROUP),
+            System.getProperty("enigma.separator",
+                               GroupFormatter.DEFAULT_SEPARATOR));
+        _formatted = new char[_format.maxLength(_buffer.length)];
+        _input = getMessages(input);
+        try {
+            _output = getOutput(output);
+        } catch (EnigmaException excp) {
+            _input.close();
+            throw excp;
         }
     }
 
+    /** A Main that only reads the configuration file CONFIG. */
+    private Main(Scanner config) {
+        _config = config;
+        _keystreams = null;
+    }
+
+    /** Return the rotor library described by the configuration file named
+     *  NAME, which may be text or a compiled image. */
+    static RotorLibrary loadLibrary(String name) {
+        if (ConfigImage.isImage(name)) {
+            return ConfigImage.read(name);
+        }
+        return new Main(getInput(name)).readLibrary();
+    }
+
     /** Return a Scanner reading from the file named NAME. */
-    private Scanner getInput(String name) {
+    private static Scanner getInput(String name) {
         try {
             return new Scanner(new File(name));
         } catch (IOException excp) {
@@ -72,10 +130,21 @@ public final class Main {
         }
     }
 
-    /** Return a PrintStream writing to the file named NAME. */
-    private PrintStream getOutput(String name) {
+    /** Return a MessageInput reading from the file named NAME. */
+    private MessageInput getMessages(String name) {
         try {
-            return new PrintStream(new File(name));
+            return new MessageInput(FileChannel.open(Paths.get(name)));
+        } catch (IOException excp) {
+            throw error("could not open %s", name);
+        }
+    }
+
+    /** Return a MessageOutput writing to the file named NAME. */
+    private MessageOutput getOutput(String name) {
+        try {
+            return new MessageOutput(FileChannel.open(Paths.get(name),
+                    StandardOpenOption.WRITE, StandardOpenOption.CREATE,
+                    StandardOpenOption.TRUNCATE_EXISTING));
         } catch (IOException excp) {
             throw error("could not open %s", name);
         }
@@ -83,87 +152,107 @@ public final class Main {
 
     /** Configure an Enigma machine from the contents of configuration
      *  file _config and apply it to the messages in _input, sending the
-     *  results to _output. */
-    private void process() {
-        Machine eng = readConfig();
-        while (_input.hasNextLine()) {
-            String cmd = _input.nextLine();
-            if (cmd.indexOf("*") != -1) {
-                int dif = cmd.indexOf('*');
-                int ind = cmd.indexOf('(');
-                if (ind != -1) {
-                    String str = cmd.substring(ind);
-                    Permutation plugBoard = new Permutation(str, _alphabet);
-                    eng.setPlugboard(plugBoard);
-                    cmd = cmd.substring(0, ind - 1);
-                }
-                cmd = cmd.substring(dif + 1);
-                String[] rot = cmd.trim().split("\\s+");
-                eng.insertRotors(
-                        Arrays.copyOfRange(rot, 0, rot.length - 1));
-                char[] arr = rot[rot.length - 1].toCharArray();
-                String st = "";
-                for (char x : arr) {
-                    st += _alphabet.toChar((_alphabet.toInt(x) + los)
-                            % _alphabet.size());
-                }
-                eng.setRotors(st);
-            } else {
-                if (eng.gru().equals(null)
-                        || eng.gru().size() == 0) {
-                    throw error("It should begin with a starting line");
+     *  results to _output.  The configuration is _library instead, if
+     *  there is one. */
+    void process() {
+        try {
+            RotorLibrary library = _library;
+            if (library == null) {
+                long start = _metrics.start(Metrics.Stage.CONFIG);
+                library = loadLibrary(_configName);
+                _metrics.end(Metrics.Stage.CONFIG, start, 0);
+            }
+            _alphabet = library.alphabet();
+            MachineCache machines =
+                new MachineCache(library, MACHINE_CACHE_SIZE);
+            String[] rotors = new String[0];
+            String plugBoard = "";
+            String key = null;
+            CompiledMachine compiled = null;
+            if (_workers > 1) {
+                _pipeline = new MessagePipeline(_output, _format, _workers,
+                                                _queueDepth);
+            }
+            while (_input.nextLine()) {
+                if (_input.contains('*')) {
+                    _metrics.count(Metrics.Counter.SETTINGS_LINES, 1);
+                    SettingsLine line = new SettingsLine(_input.text());
+                    if (line.plugboard() != null) {
+                        plugBoard = line.plugboard();
+                    }
+                    if (line.rotors().length > 0) {
+                        rotors = line.rotors();
+                    }
+                    String next = String.join(" ", rotors) + '\0'
+                        + line.setting() + '\0' + plugBoard;
+                    if (!next.equals(key)) {
+                        key = next;
+                        _metrics.count(Metrics.Counter.RECONFIGURATIONS, 1);
+                    }
+                    compiled = machines.get(rotors, line.setting(),
+                                            plugBoard);
+                    MachineSpec spec = compiled.spec();
+                    KeystreamCache.Keystream keystream =
+                        _keystreams.get(spec, compiled.cursor());
+                    _keystream = keystream != null && keystream.periodic()
+                        ? keystream : null;
+                    _position = 0;
+                    if (_pipeline != null) {
+                        _pipeline.begin(spec, compiled.cursor(), _keystream);
+                    }
+                } else {
+                    if (compiled == null) {
+                        throw error("It should begin with a starting line");
+                    }
+                    if (_pipeline != null) {
+                        queueMessageLine();
+                    } else {
+                        convertMessageLine(compiled);
+                    }
                 }
-                if ((eng.gru().equals(null)
-                        || eng.gru().size() == 0)
-                        && cmd.trim().equals("")) {
-                    continue;
+            }
+        } finally {
+            try {
+                if (_pipeline != null) {
+                    _pipeline.close();
                 }
-                String fin = eng.convert(
-                        cmd.replaceAll("\\s+", "").trim());
-                printMessageLine(fin);
+            } finally {
+                _input.close();
+                _output.close();
             }
         }
     }
 
-    /** Return an Enigma machine configured from the contents of configuration
+    /** Return the number of message characters converted so far by
+     *  process on its own thread. */
+    long converted() {
+        return _converted;
+    }
+
+    /** Return the rotor library described by the contents of configuration
      *  file _config. */
-    private Machine readConfig() {
+    private RotorLibrary readLibrary() {
         try {
             int countp = 0;
             int rotnum = 0;
-            List<Rotor> rot = new ArrayList<Rotor>();
+            List<Wiring> rot = new ArrayList<Wiring>();
             if (_config.hasNext()) {
                 String str = _config.nextLine().trim();
                 if (str.indexOf("-") != -1) {
                     String[] val = str.split("\\-");
                     for (String x : val) {
-                        for (char y : x.toCharArray()) {
-                            if (!Character.isLetter(y) && !Character.isDigit(y)
-                                    && !Character.isAlphabetic(y)) {
-                                throw error("The alphabet isn't valid!");
-                            }
-                        }
+                        checkAlphabet(x);
                     }
-                    _alphabet = new CharacterRange(str.charAt(0),
-                            str.charAt(str.length() - 1));
-                } else {
-                    int low = Integer.MAX_VALUE;
-                    char prim = str.charAt(0);
-                    int high = Integer.MIN_VALUE;
-                    for (char a : str.toCharArray()) {
-                        if (!Character.isDigit(a) && !Character.isAlphabetic(a)
-                                && !Character.isLetter(a)) {
-                            throw error("The alphabet isn't valid!");
-                        }
-                        if ((int) a > high) {
-                            high = (int) a;
-                        }
-                        if ((int) a < low) {
-                            low = (int) a;
-                        }
+                    if (str.indexOf('\\') == -1) {
+                        _alphabet = new CharacterRange(str.charAt(0),
+                                str.charAt(str.length() - 1));
+                    } else {
+                        String ends = Escapes.decode(str);
+                        _alphabet = new Alphabet(span(ends.charAt(0),
+                                ends.charAt(ends.length() - 1)));
                     }
-                    _alphabet = new CharacterRange((char) low, (char) high);
-                    los = (int) prim - (int) low;
+                } else {
+                    _alphabet = readAlphabet(str);
                 }
             }
             if (_config.hasNext()) {
@@ -176,14 +265,69 @@ public final class Main {
             while (_config.hasNext()) {
                 rot.add(readRotor());
             }
-            return new Machine(_alphabet, rotnum, countp, rot);
+            return new RotorLibrary(_alphabet, rotnum, countp,
+                                    rot.toArray(new Wiring[0]), los);
         } catch (NoSuchElementException excp) {
             throw error("NumRotors and pawls must be integers");
         }
     }
 
-    /** Return a rotor, reading a LINE from _config. */
-    private Rotor readRotor() {
+    /** Return the alphabet listed, one character (or escape) each, on
+     *  the alphabet line STR.  A line listing every character from its
+     *  smallest to its largest becomes that range, indices counting from
+     *  the smallest, with los recording where the line itself starts;
+     *  any other set of characters becomes an Alphabet in the order
+     *  listed, holding just those characters. */
+    private Alphabet readAlphabet(String str) {
+        checkAlphabet(str);
+        char[] chars = Escapes.decode(str).toCharArray();
+        if (chars.length == 0) {
+            throw error("The alphabet isn't valid!");
+        }
+        char[] sorted = chars.clone();
+        Arrays.sort(sorted);
+        int distinct = 0;
+        for (int x = 0; x < sorted.length; x += 1) {
+            if (x == 0 || sorted[x] != sorted[x - 1]) {
+                distinct += 1;
+            }
+        }
+        char low = sorted[0], high = sorted[sorted.length - 1];
+        if (distinct == high - low + 1) {
+            los = chars[0] - low;
+            return str.indexOf('\\') == -1 ? new CharacterRange(low, high)
+                : new Alphabet(span(low, high));
+        }
+        los = 0;
+        return new Alphabet(new String(chars));
+    }
+
+    /** Check that every character written in the alphabet line STR,
+     *  other than those written as Escapes, is a letter or digit. */
+    private static void checkAlphabet(String str) {
+        for (int x = 0; x < str.length(); x += Escapes.length(str, x)) {
+            char a = str.charAt(x);
+            if (a != '\\' && !Character.isDigit(a)
+                    && !Character.isAlphabetic(a) && !Character.isLetter(a)) {
+                throw error("The alphabet isn't valid!");
+            }
+        }
+    }
+
+    /** Return the characters from LOW to HIGH, inclusive, in order. */
+    private static String span(char low, char high) {
+        if (low > high) {
+            throw error("empty range of characters");
+        }
+        StringBuilder result = new StringBuilder(high - low + 1);
+        for (char ch = low; ch < high; ch += 1) {
+            result.append(ch);
+        }
+        return result.append(high).toString();
+    }
+
+    /** Return the wiring of a rotor, reading a LINE from _config. */
+    private Wiring readRotor() {
         try {
             String nxtl = _config.nextLine();
             if (nxtl.trim().equals("")) {
@@ -196,28 +340,22 @@ public final class Main {
             if (rotorDet.length < 2) {
                 throw error("The rotor is formatted improperly!");
             }
+            int size = _alphabet.size();
+            boolean[] notches = new boolean[size];
             switch (rotorDet[1].charAt(0)) {
             case 'M':
-                if (rotorDet[1].length() == 1) {
-                    return new MovingRotor(rotorDet[0],
-                            new Permutation(ss2, _alphabet), "");
-                }
-                String ntc = "";
-                for (char x : rotorDet[1].substring(1).toCharArray()) {
-                    ntc += _alphabet.toChar((_alphabet.toInt(x) + los)
-                            % _alphabet.size());
+                for (char x : Escapes.decode(rotorDet[1].substring(1))
+                         .toCharArray()) {
+                    notches[(_alphabet.toInt(x) + los) % size] = true;
                 }
-                return new MovingRotor(rotorDet[0], new Permutation(
-                            ss2, _alphabet), ntc);
+                return wiring(rotorDet[0], true, false, ss2, notches);
             case 'N':
-                return new FixedRotor(rotorDet[0],
-                        new Permutation(ss2, _alphabet));
+                return wiring(rotorDet[0], false, false, ss2, notches);
             case 'R':
                 if (_config.hasNext("\\(\\p{Print}\\p{Print}\\)")) {
                     ss2 += " " + _config.nextLine().trim();
                 }
-                return new Reflector(rotorDet[0],
-                        new Permutation(ss2, _alphabet));
+                return wiring(rotorDet[0], false, true, ss2, notches);
             default:
                 throw error("It isn't a valid rotor type!");
             }
@@ -226,40 +364,124 @@ public final class Main {
         }
     }
 
+    /** Return the wiring of the rotor NAME, which rotates iff ROTATES and
+     *  is a reflector iff REFLECTING, whose permutation is written as
+     *  CYCLES and whose notches are NOTCHES. */
+    private Wiring wiring(String name, boolean rotates, boolean reflecting,
+                          String cycles, boolean[] notches) {
+        int[] forward = Cycles.parse(cycles, _alphabet);
+        return new Wiring(name, rotates, reflecting, forward,
+                          Cycles.inverse(forward), notches);
+    }
+
     /** Set M according to the specification given on SETTINGS,
      *  which must have the format specified in the assignment. */
     private void setUp(Machine M, String settings) {
     }
 
-    /** Print MSG in groups of five (except that the last group may
-     *  have fewer letters). */
-    private void printMessageLine(String msg) {
-        String result;
-        if (msg.length() >= 5) {
-            result = msg.substring(0, 5) + " ";
-            for (int i = 1; i < (msg.length() / 5); i++) {
-                result = result + msg.substring(i * 5, i * 5 + 5) + " ";
+    /** Convert the rest of the current input line with M, ignoring
+     *  whitespace, and print the result in groups as set by _format
+     *  (normally five letters, except that the last group may have
+     *  fewer).  The line is converted a
+     *  buffer at a time, however long it is.  When the settings have been
+     *  seen before, their cached keystream is used instead of M. */
+    private void convertMessageLine(CompiledMachine m) {
+        long start = _metrics.start(Metrics.Stage.MESSAGE);
+        long total = 0;
+        int n;
+        _format.startLine();
+        while ((n = _input.read(_buffer, 0, _buffer.length)) != -1) {
+            if (_keystream != null) {
+                _keystream.convert(_position, _buffer, 0, n, _buffer, 0);
+                _position += n;
+            } else {
+                m.convert(_buffer, 0, n, _buffer, 0);
             }
-        } else {
-            result = msg;
+            _output.write(_formatted, 0,
+                          _format.format(_buffer, 0, n, _formatted, 0));
+            total += n;
         }
-        if (msg.length() % 5 != 0 && msg.length() > 5) {
-            result += msg.substring(msg.length() - (msg.length() % 5));
+        _output.newLine();
+        _metrics.end(Metrics.Stage.MESSAGE, start, total);
+        _metrics.count(Metrics.Counter.MESSAGES, 1);
+        _metrics.count(Metrics.Counter.CHARACTERS, total);
+        _converted += total;
+    }
+
+    /** Add the rest of the current input line, ignoring whitespace, to
+     *  _pipeline as a message line. */
+    private void queueMessageLine() {
+        int n;
+        while ((n = _input.read(_buffer, 0, _buffer.length)) != -1) {
+            _pipeline.append(_buffer, 0, n);
         }
-        _output.println(result);
+        _pipeline.endLine();
+        _metrics.count(Metrics.Counter.MESSAGES, 1);
     }
 
     /** Alphabet used in this machine. */
     private Alphabet _alphabet;
 
     /** Source of input messages. */
-    private Scanner _input;
+    private MessageInput _input;
+
+    /** Name of the machine configuration file. */
+    private String _configName;
+
+    /** Machine configuration, or null if it is to be read from
+     *  _configName. */
+    private RotorLibrary _library;
 
     /** Source of machine configuration. */
     private Scanner _config;
 
     /** File for encoded/decoded messages. */
-    private PrintStream _output;
+    private MessageOutput _output;
+
+    /** Keystreams of the settings lines seen so far. */
+    private final KeystreamCache _keystreams;
+
+    /** Keystream of the current settings, or null if they are converted
+     *  by machine. */
+    private KeystreamCache.Keystream _keystream;
+
+    /** Number of characters converted on this thread. */
+    private long _converted;
+
+    /** Number of characters converted since the current settings line. */
+    private long _position;
+
+    /** Most machines remembered for the settings lines seen so far. */
+    private static final int MACHINE_CACHE_SIZE = 64;
+
+    /** Most keystream table entries held at once. */
+    static final long KEYSTREAM_BUDGET = 1L << 24;
+
+    /** Most positions tabulated per keystream, enough for the full period
+     *  of three pawls on a 26-letter alphabet. */
+    static final int KEYSTREAM_WINDOW = 1 << 15;
+
+    /** Where measurements go. */
+    private final Metrics _metrics = Metrics.current();
+
+    /** Formatter grouping the converted text. */
+    private GroupFormatter _format;
+
+    /** Buffer into which converted text is formatted. */
+    private char[] _formatted;
+
+    /** Number of threads converting messages. */
+    private int _workers = 1;
+
+    /** Most segments of input in flight when converting on several
+     *  threads. */
+    private int _queueDepth;
+
+    /** Pipeline converting messages when _workers > 1, else null. */
+    private MessagePipeline _pipeline;
+
+    /** Buffer through which message lines are converted. */
+    private final char[] _buffer = new char[1 << 13];
 
     /** Length difference. */
     private int los = 0;
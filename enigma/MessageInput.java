@@ -0,0 +1,223 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.charset.CharsetDecoder;
+import java.nio.charset.Charset;
+import java.nio.charset.CodingErrorAction;
+
+import static enigma.EnigmaException.*;
+
+/** A source of input lines read from a channel through fixed-size
+ *  buffers.  The start of each line (up to LINE_LIMIT characters) is
+ *  buffered so that it can be examined; the rest of a longer line is
+ *  only ever streamed through read, so memory use does not depend on the
+ *  size of the input.  Lines are terminated as for Scanner.nextLine.
+ *  @author Abel Yagubyan
+ */
+final class MessageInput {
+
+    /** Input read from CHANNEL in the platform's default charset. */
+    MessageInput(ReadableByteChannel channel) {
+        _channel = channel;
+        _decoder = Charset.defaultCharset().newDecoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _bytes = ByteBuffer.allocateDirect(BUFFER_SIZE);
+        _chars = new char[BUFFER_SIZE];
+        _line = new char[INITIAL_LINE];
+        _lineEnded = true;
+    }
+
+    /** Advance to the next line of input, discarding whatever remains of
+     *  the current one.  Returns false if there are no more lines. */
+    boolean nextLine() {
+        while (!_lineEnded) {
+            if (nextChar() == -1) {
+                _lineEnded = true;
+            }
+        }
+        _lineLen = _linePos = 0;
+        if (peekChar() == -1) {
+            return false;
+        }
+        _lineEnded = false;
+        while (true) {
+            int c = nextChar();
+            if (c == -1) {
+                _lineEnded = true;
+                break;
+            }
+            _line[_lineLen] = (char) c;
+            _lineLen += 1;
+            if (_lineLen == _line.length) {
+                if (_line.length == LINE_LIMIT) {
+                    break;
+                }
+                char[] grown = new char[Math.min(2 * _line.length,
+                                                 LINE_LIMIT)];
+                System.arraycopy(_line, 0, grown, 0, _lineLen);
+                _line = grown;
+            }
+        }
+        return true;
+    }
+
+    /** Return true iff CH occurs in the buffered start of the current
+     *  line. */
+    boolean contains(char ch) {
+        for (int x = 0; x < _lineLen; x += 1) {
+            if (_line[x] == ch) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /** Return the whole of the current line, which must not be longer
+     *  than LINE_LIMIT characters. */
+    String text() {
+        if (!_lineEnded) {
+            throw error("The line is too long!");
+        }
+        return new String(_line, 0, _lineLen);
+    }
+
+    /** Read up to LEN of the remaining characters of the current line into
+     *  BUF starting at OFF, skipping whitespace as the regular expression
+     *  \\s does.  Returns the number of characters stored, or -1 if the
+     *  rest of the line is empty. */
+    int read(char[] buf, int off, int len) {
+        int n = 0;
+        while (n < len && _linePos < _lineLen) {
+            char ch = _line[_linePos];
+            _linePos += 1;
+            if (!isSpace(ch)) {
+                buf[off + n] = ch;
+                n += 1;
+            }
+        }
+        while (n < len && !_lineEnded) {
+            int c = nextChar();
+            if (c == -1) {
+                _lineEnded = true;
+            } else if (!isSpace((char) c)) {
+                buf[off + n] = (char) c;
+                n += 1;
+            }
+        }
+        return n == 0 && len > 0 ? -1 : n;
+    }
+
+    /** Close my channel. */
+    void close() {
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            throw error("could not close input");
+        }
+    }
+
+    /** Return true iff CH is matched by the regular expression \\s. */
+    static boolean isSpace(char ch) {
+        return ch == ' ' || (ch >= '\t' && ch <= '\r');
+    }
+
+    /** Return the next character of the current line, or -1 if the line
+     *  (or the input) has ended, consuming its terminator. */
+    private int nextChar() {
+        if (_pos == _len && !fill()) {
+            return -1;
+        }
+        char ch = _chars[_pos];
+        _pos += 1;
+        switch (ch) {
+        case '\r':
+            _lineEnded = true;
+            if (peekChar() == '\n') {
+                _pos += 1;
+            }
+            return -1;
+        case '\n': case '\u2028': case '\u2029': case '\u0085':
+            _lineEnded = true;
+            return -1;
+        default:
+            return ch;
+        }
+    }
+
+    /** Return the next unread character without consuming it, or -1 at
+     *  the end of the input. */
+    private int peekChar() {
+        if (_pos == _len && !fill()) {
+            return -1;
+        }
+        return _chars[_pos];
+    }
+
+    /** Refill _chars from my channel, returning false if the input is
+     *  exhausted. */
+    private boolean fill() {
+        CharBuffer out = CharBuffer.wrap(_chars);
+        try {
+            while (out.position() == 0 && !_done) {
+                if (!_eof && _channel.read(_bytes) < 0) {
+                    _eof = true;
+                }
+                _bytes.flip();
+                _decoder.decode(_bytes, out, _eof);
+                _bytes.compact();
+                if (_eof) {
+                    _decoder.flush(out);
+                    _done = true;
+                }
+            }
+        } catch (IOException excp) {
+            throw error("could not read input");
+        }
+        _pos = 0;
+        _len = out.position();
+        return _len > 0;
+    }
+
+    /** Size of my byte and character buffers. */
+    private static final int BUFFER_SIZE = 1 << 16;
+
+    /** Initial capacity of the line buffer. */
+    private static final int INITIAL_LINE = 1 << 8;
+
+    /** Most characters of a line that are buffered. */
+    static final int LINE_LIMIT = 1 << 20;
+
+    /** Source of my input. */
+    private final ReadableByteChannel _channel;
+
+    /** Decoder for the bytes from _channel. */
+    private final CharsetDecoder _decoder;
+
+    /** Bytes read from _channel but not yet decoded. */
+    private final ByteBuffer _bytes;
+
+    /** Decoded characters; those in _pos .. _len - 1 are unread. */
+    private final char[] _chars;
+
+    /** Bounds of the unread characters in _chars. */
+    private int _pos, _len;
+
+    /** True once _channel has reported the end of its input. */
+    private boolean _eof;
+
+    /** True once every byte from _channel has been decoded. */
+    private boolean _done;
+
+    /** Buffered start of the current line. */
+    private char[] _line;
+
+    /** Number of characters in _line, and number already read. */
+    private int _lineLen, _linePos;
+
+    /** True iff the terminator of the current line has been consumed. */
+    private boolean _lineEnded;
+}
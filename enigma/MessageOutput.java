@@ -0,0 +1,128 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.Charset;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CodingErrorAction;
+import java.nio.charset.CoderResult;
+
+import static enigma.EnigmaException.*;
+
+/** A sink for output text that encodes into a large reusable direct
+ *  buffer and writes it to a channel only when the buffer fills, or when
+ *  flushed.
+ *  @author Abel Yagubyan
+ */
+final class MessageOutput {
+
+    /** Output written to CHANNEL in the platform's default charset. */
+    MessageOutput(WritableByteChannel channel) {
+        _channel = channel;
+        _encoder = Charset.defaultCharset().newEncoder()
+            .onMalformedInput(CodingErrorAction.REPLACE)
+            .onUnmappableCharacter(CodingErrorAction.REPLACE);
+        _chars = CharBuffer.allocate(CHAR_BUFFER_SIZE);
+        _bytes = ByteBuffer.allocateDirect(BYTE_BUFFER_SIZE);
+    }
+
+    /** Write CH. */
+    void write(char ch) {
+        if (!_chars.hasRemaining()) {
+            encode();
+        }
+        _chars.put(ch);
+    }
+
+    /** Write the LEN characters of BUF starting at OFF. */
+    void write(char[] buf, int off, int len) {
+        while (len > 0) {
+            if (!_chars.hasRemaining()) {
+                encode();
+            }
+            int n = Math.min(len, _chars.remaining());
+            _chars.put(buf, off, n);
+            off += n;
+            len -= n;
+        }
+    }
+
+    /** Write a line separator. */
+    void newLine() {
+        for (int x = 0; x < LINE_SEPARATOR.length(); x += 1) {
+            write(LINE_SEPARATOR.charAt(x));
+        }
+    }
+
+    /** Write everything buffered so far to my channel. */
+    void flush() {
+        encode();
+        drain();
+    }
+
+    /** Flush and close my channel. */
+    void close() {
+        flush();
+        try {
+            _channel.close();
+        } catch (IOException excp) {
+            throw error("could not close output");
+        }
+    }
+
+    /** Encode the pending characters into _bytes, draining it to my
+     *  channel whenever it fills. */
+    private void encode() {
+        _chars.flip();
+        while (true) {
+            CoderResult result = _encoder.encode(_chars, _bytes, false);
+            if (!result.isOverflow()) {
+                break;
+            }
+            drain();
+        }
+        _chars.compact();
+    }
+
+    /** Write the contents of _bytes to my channel. */
+    private void drain() {
+        _bytes.flip();
+        int length = _bytes.remaining();
+        long start = _metrics.start(Metrics.Stage.OUTPUT);
+        try {
+            while (_bytes.hasRemaining()) {
+                _channel.write(_bytes);
+            }
+        } catch (IOException excp) {
+            throw error("could not write output");
+        }
+        _metrics.end(Metrics.Stage.OUTPUT, start, length);
+        _bytes.clear();
+    }
+
+    /** Where measurements go. */
+    private final Metrics _metrics = Metrics.current();
+
+    /** Size of the character staging buffer. */
+    private static final int CHAR_BUFFER_SIZE = 1 << 13;
+
+    /** Size of the encoded output buffer. */
+    private static final int BYTE_BUFFER_SIZE = 1 << 18;
+
+    /** Line separator, as written by PrintStream.println. */
+    private static final String LINE_SEPARATOR = System.lineSeparator();
+
+    /** Destination of my output. */
+    private final WritableByteChannel _channel;
+
+    /** Encoder into _bytes. */
+    private final CharsetEncoder _encoder;
+
+    /** Characters not yet encoded. */
+    private final CharBuffer _chars;
+
+    /** Encoded bytes not yet written. */
+    private final ByteBuffer _bytes;
+}
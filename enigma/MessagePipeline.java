@@ -0,0 +1,344 @@
+package enigma;
+
+import java.nio.CharBuffer;
+import java.util.Arrays;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Callable;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static enigma.EnigmaException.*;
+
+/** A pipeline converting message lines on several threads while writing
+ *  the results in input order, exactly as Main would one line at a time.
+ *  The caller (the reader stage) checks each message's characters and
+ *  cuts the messages into segments of bounded size, each recording the
+ *  machine state it starts from; a pool of workers converts and formats
+ *  the segments independently; and a writer thread takes the results in
+ *  the order the segments were made and sends them to the output.  At
+ *  most a fixed number of segments are in flight, so memory stays
+ *  bounded however long the input is.
+ *  @author Abel Yagubyan
+ */
+final class MessagePipeline {
+
+    /** A pipeline writing to OUTPUT, formatted as by FORMAT, converting
+     *  with WORKERS threads and holding at most DEPTH segments in
+     *  flight. */
+    MessagePipeline(MessageOutput output, GroupFormatter format,
+                    int workers, int depth) {
+        if (workers <= 0 || depth <= 0) {
+            throw error("The pipeline needs a worker and room for a "
+                        + "segment!");
+        }
+        _output = output;
+        _format = format.copy();
+        _pending = new ArrayBlockingQueue<>(depth);
+        _workers = Executors.newFixedThreadPool(workers, r -> {
+            Thread thread = new Thread(r, "enigma-worker");
+            thread.setDaemon(true);
+            return thread;
+        });
+        _writer = new Thread(this::write, "enigma-writer");
+        _writer.setDaemon(true);
+        _writer.start();
+    }
+
+    /** Start a new block of messages, converted with SPEC from the state
+     *  of CURSOR, or with KEYSTREAM (if not null) from its start. */
+    void begin(MachineSpec spec, MachineCursor cursor,
+               KeystreamCache.Keystream keystream) {
+        submit();
+        _spec = spec;
+        _cursor = cursor.copy();
+        _keystream = keystream;
+        _position = 0;
+        _format.startLine();
+    }
+
+    /** Add the LEN characters of BUF starting at OFF to the current
+     *  message line.  They are all checked against the current alphabet
+     *  before any is added. */
+    void append(char[] buf, int off, int len) {
+        Alphabet alpha = _spec.alphabet();
+        for (int x = off; x < off + len; x += 1) {
+            if (!alpha.contains(buf[x])) {
+                throw error("The value isn't part of the alphabet!");
+            }
+        }
+        while (len > 0) {
+            if (_text == null) {
+                startSegment();
+            }
+            int n = Math.min(len, SEGMENT_SIZE - _length - _lines);
+            System.arraycopy(buf, off, _text, _length, n);
+            _format.skip(n);
+            _length += n;
+            off += n;
+            len -= n;
+            if (_length + _lines >= SEGMENT_SIZE) {
+                submit();
+            }
+        }
+    }
+
+    /** End the current message line. */
+    void endLine() {
+        if (_text == null) {
+            startSegment();
+        }
+        if (_lines == _lineEnds.length) {
+            _lineEnds = Arrays.copyOf(_lineEnds, 2 * _lines);
+        }
+        _lineEnds[_lines] = _length;
+        _lines += 1;
+        _format.startLine();
+        if (_length + _lines >= SEGMENT_SIZE) {
+            submit();
+        }
+    }
+
+    /** Write out everything added so far and stop my threads.  Throws
+     *  the first error met by a worker or the writer. */
+    void close() {
+        try {
+            try {
+                submit();
+            } finally {
+                _pending.put(END);
+                _writer.join();
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while writing the output");
+        } finally {
+            _workers.shutdownNow();
+        }
+        if (_failure != null) {
+            throw _failure;
+        }
+    }
+
+    /** Begin a new segment of the current block. */
+    private void startSegment() {
+        if (_spec == null) {
+            throw error("It should begin with a starting line");
+        }
+        _text = new char[SEGMENT_SIZE];
+        _segmentFormat = _format.copy();
+        _lineEnds = new int[INITIAL_LINES];
+        _length = 0;
+        _lines = 0;
+    }
+
+    /** Send the current segment, if any, to be converted, and advance the
+     *  block's state past it. */
+    private void submit() {
+        if (_text == null) {
+            return;
+        }
+        Segment segment = new Segment(_spec, _cursor, _keystream, _position,
+                                      _text, _length,
+                                      Arrays.copyOf(_lineEnds, _lines),
+                                      _segmentFormat);
+        if (_keystream == null) {
+            _cursor = _cursor.copy();
+            _spec.advanceBy(_cursor, _length);
+        }
+        _position += _length;
+        _text = null;
+        try {
+            put(_workers.submit(segment));
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("Interrupted while converting");
+        }
+    }
+
+    /** Queue FUTURE for the writer, waiting for room if need be.  Throws
+     *  the writer's error, if it has stopped writing. */
+    private void put(Future<CharBuffer> future) throws InterruptedException {
+        if (_failure != null) {
+            throw _failure;
+        }
+        _pending.put(future);
+    }
+
+    /** The writer stage: write the result of each queued segment in turn
+     *  until END, recording the first failure (after which results are
+     *  discarded, so that the reader is never blocked). */
+    private void write() {
+        while (true) {
+            Future<CharBuffer> next;
+            try {
+                next = _pending.take();
+            } catch (InterruptedException excp) {
+                fail(error("Interrupted while writing the output"));
+                return;
+            }
+            if (next == END) {
+                return;
+            }
+            if (_failure != null) {
+                next.cancel(false);
+                continue;
+            }
+            try {
+                CharBuffer result = next.get();
+                _output.write(result.array(), 0, result.limit());
+            } catch (ExecutionException excp) {
+                Throwable cause = excp.getCause();
+                fail(cause instanceof EnigmaException
+                     ? (EnigmaException) cause
+                     : error("Conversion failed: %s", cause));
+            } catch (InterruptedException excp) {
+                fail(error("Interrupted while writing the output"));
+                return;
+            } catch (EnigmaException excp) {
+                fail(excp);
+            }
+        }
+    }
+
+    /** Record EXCP as my failure, unless there has already been one. */
+    private synchronized void fail(EnigmaException excp) {
+        if (_failure == null) {
+            _failure = excp;
+        }
+    }
+
+    /** A run of message characters from one block, converted and
+     *  formatted into groups on a worker thread. */
+    private static final class Segment implements Callable<CharBuffer> {
+
+        /** The LENGTH characters of TEXT, converted with SPEC from the state
+         *  of CURSOR or, if KEYSTREAM is not null, with KEYSTREAM from
+         *  POSITION.  A line ends after character K for each K in LINEENDS.
+         *  FORMAT groups the output, and is at the place in its group
+         *  where TEXT starts. */
+        Segment(MachineSpec spec, MachineCursor cursor,
+                KeystreamCache.Keystream keystream, long position,
+                char[] text, int length, int[] lineEnds,
+                GroupFormatter format) {
+            _spec = spec;
+            _cursor = cursor;
+            _keystream = keystream;
+            _position = position;
+            _text = text;
+            _length = length;
+            _lineEnds = lineEnds;
+            _format = format;
+        }
+
+        @Override
+        public CharBuffer call() {
+            Metrics metrics = Metrics.current();
+            long start = metrics.start(Metrics.Stage.MESSAGE);
+            if (_keystream != null) {
+                _keystream.convert(_position, _text, 0, _length, _text, 0);
+            } else {
+                _spec.convert(_cursor, _text, 0, _length, _text, 0);
+            }
+            char[] sep = System.lineSeparator().toCharArray();
+            char[] out = new char[_format.maxLength(_length)
+                                  + _lineEnds.length
+                                    * (sep.length + _format.maxLength(0))];
+            int n = 0, begin = 0;
+            for (int end : _lineEnds) {
+                n += _format.format(_text, begin, end - begin, out, n);
+                System.arraycopy(sep, 0, out, n, sep.length);
+                n += sep.length;
+                _format.startLine();
+                begin = end;
+            }
+            n += _format.format(_text, begin, _length - begin, out, n);
+            metrics.end(Metrics.Stage.MESSAGE, start, _length);
+            metrics.count(Metrics.Counter.CHARACTERS, _length);
+            return CharBuffer.wrap(out, 0, n);
+        }
+
+        /** Configuration of the block's machine. */
+        private final MachineSpec _spec;
+
+        /** Its state at my first character. */
+        private final MachineCursor _cursor;
+
+        /** Keystream of the block, or null. */
+        private final KeystreamCache.Keystream _keystream;
+
+        /** Position of my first character in the block. */
+        private final long _position;
+
+        /** My characters. */
+        private final char[] _text;
+
+        /** Number of my characters. */
+        private final int _length;
+
+        /** Offsets in _text after which lines end. */
+        private final int[] _lineEnds;
+
+        /** Formatter of my output. */
+        private final GroupFormatter _format;
+    }
+
+    /** Marks the end of the queue of segments. */
+    private static final Future<CharBuffer> END =
+        CompletableFuture.completedFuture(null);
+
+    /** Most characters plus line ends in a segment. */
+    static final int SEGMENT_SIZE = 1 << 16;
+
+    /** Number of line ends a segment has room for at first. */
+    private static final int INITIAL_LINES = 64;
+
+    /** Destination of the results. */
+    private final MessageOutput _output;
+
+    /** Results of the segments submitted and not yet written, in order. */
+    private final BlockingQueue<Future<CharBuffer>> _pending;
+
+    /** The worker threads. */
+    private final ExecutorService _workers;
+
+    /** The writer thread. */
+    private final Thread _writer;
+
+    /** First error met by a worker or the writer, or null. */
+    private volatile EnigmaException _failure;
+
+    /** Configuration of the current block's machine, or null before the
+     *  first block. */
+    private MachineSpec _spec;
+
+    /** Its state at the start of the current segment. */
+    private MachineCursor _cursor;
+
+    /** Keystream of the current block, or null. */
+    private KeystreamCache.Keystream _keystream;
+
+    /** Position of the current segment in its block. */
+    private long _position;
+
+    /** Formatter at the current place in the current line. */
+    private final GroupFormatter _format;
+
+    /** Formatter at the place where the current segment starts. */
+    private GroupFormatter _segmentFormat;
+
+    /** Characters of the current segment, or null if none is started. */
+    private char[] _text;
+
+    /** Number of characters in _text. */
+    private int _length;
+
+    /** Offsets in _text after which lines of the current segment end. */
+    private int[] _lineEnds;
+
+    /** Number of entries in _lineEnds. */
+    private int _lines;
+}
@@ -0,0 +1,109 @@
+package enigma;
+
+/** A sink for measurements of the conversion path: counters of
+ *  characters, messages, settings lines, reconfigurations and machine
+ *  cache lookups, and the time taken by each stage (parsing
+ *  configurations, converting messages and writing output).  The
+ *  implementation in use is chosen once, when the JVM starts, by the
+ *  system property enigma.metrics: "summary" for a RecordingMetrics
+ *  that prints its statistics at exit, "jfr" for JfrMetrics, the name
+ *  of a class implementing Metrics with a public no-argument
+ *  constructor, or by default NONE.  NONE does nothing, not even
+ *  reading the clock, and since current() is a constant the JIT removes
+ *  calls to it entirely.
+ *  @author Abel Yagubyan
+ */
+interface Metrics {
+
+    /** The stages that are timed. */
+    enum Stage {
+        /** Reading a configuration file. */
+        CONFIG,
+        /** Converting a message (a line, or a segment of a pipeline). */
+        MESSAGE,
+        /** Writing a buffer of output to its channel. */
+        OUTPUT
+    }
+
+    /** The events that are counted. */
+    enum Counter {
+        /** Characters converted. */
+        CHARACTERS,
+        /** Messages converted. */
+        MESSAGES,
+        /** Settings lines read. */
+        SETTINGS_LINES,
+        /** Changes of rotors, rotor settings or plugboard. */
+        RECONFIGURATIONS,
+        /** Machines found in a MachineCache. */
+        MACHINE_HITS,
+        /** Machines built because they were not in a MachineCache. */
+        MACHINE_MISSES
+    }
+
+    /** Return a timestamp marking the start of STAGE, to be passed to
+     *  end. */
+    long start(Stage stage);
+
+    /** Record the end of STAGE, begun at timestamp START, which handled
+     *  AMOUNT characters or bytes. */
+    void end(Stage stage, long start, long amount);
+
+    /** Add N to COUNTER. */
+    void count(Counter counter, long n);
+
+    /** Return the metrics in use. */
+    static Metrics current() {
+        return Installed.CURRENT;
+    }
+
+    /** Metrics that record nothing. */
+    Metrics NONE = new Metrics() {
+        @Override
+        public long start(Stage stage) {
+            return 0;
+        }
+
+        @Override
+        public void end(Stage stage, long start, long amount) {
+        }
+
+        @Override
+        public void count(Counter counter, long n) {
+        }
+    };
+
+    /** Holder of the metrics chosen by enigma.metrics. */
+    final class Installed {
+
+        /** Not instantiable. */
+        private Installed() {
+        }
+
+        /** Return the metrics named by NAME, as described for Metrics. */
+        private static Metrics load(String name) {
+            if (name == null || name.isEmpty() || name.equals("none")) {
+                return NONE;
+            } else if (name.equals("summary")) {
+                RecordingMetrics result = new RecordingMetrics();
+                Runtime.getRuntime().addShutdownHook(
+                    new Thread(() -> result.report(System.err)));
+                return result;
+            } else if (name.equals("jfr")) {
+                return new JfrMetrics();
+            }
+            try {
+                return (Metrics) Class.forName(name)
+                    .getDeclaredConstructor().newInstance();
+            } catch (ReflectiveOperationException | ClassCastException excp) {
+                System.err.printf("Warning: no metrics class %s (%s); "
+                                  + "metrics are off.%n", name, excp);
+                return NONE;
+            }
+        }
+
+        /** The metrics in use. */
+        static final Metrics CURRENT =
+            load(System.getProperty("enigma.metrics"));
+    }
+}
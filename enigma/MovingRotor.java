@@ -31,6 +31,11 @@ class MovingRotor extends Rotor {
         sadv(rotates());
         set(setting() + 1);
     }
+    /** Return the characters at which I have notches. */
+    String notches() {
+        return _n;
+    }
+
     /** Notches. */
     private String _n;
 }
@@ -0,0 +1,195 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+import static enigma.EnigmaException.*;
+
+/** The log10 probabilities of the n-grams (bigrams, trigrams or
+ *  quadgrams) of a language, for scoring candidate decryptions.  The
+ *  table is a flat array with one entry per n-gram of an alphabet,
+ *  n-gram C1 ... Cn being at index ((C1 * size + C2) * size + ...) + Cn,
+ *  each Ci an index as given by Alphabet.toInt.  N-grams that never
+ *  occurred get a floor a hundred times less probable than one that
+ *  occurred once.
+ *
+ *  A table is read from a local file of one of two kinds.  A corpus is
+ *  any text, read as UTF-8: characters that are in the alphabet (or
+ *  whose upper case is) are counted in runs of N, and all others are
+ *  skipped, so that words run together as in an Enigma message.  A
+ *  counts file has a line "NGRAM COUNT" per n-gram instead, as most
+ *  published n-gram statistics do; a file whose first line is of that
+ *  form is taken to be one.
+ *  @author Abel Yagubyan
+ */
+final class NgramTable {
+
+    /** The table of ORDER-grams of ALPHA counted in the corpus or counts
+     *  file at PATH. */
+    NgramTable(Path path, Alphabet alpha, int order) {
+        if (order < MIN_ORDER || order > MAX_ORDER) {
+            throw error("N-grams must have %d to %d characters!",
+                        MIN_ORDER, MAX_ORDER);
+        }
+        _alphabet = alpha;
+        _size = alpha.size();
+        _order = order;
+        long entries = 1;
+        for (int x = 0; x < order; x += 1) {
+            entries *= _size;
+            if (entries > MAX_ENTRIES) {
+                throw error("The n-gram table would be too large!");
+            }
+        }
+        long[] counts = new long[(int) entries];
+        try (BufferedReader in = new BufferedReader(new InputStreamReader(
+                 Files.newInputStream(path), StandardCharsets.UTF_8))) {
+            count(in, counts);
+        } catch (IOException excp) {
+            throw error("could not read %s", path);
+        }
+        long total = 0;
+        for (long n : counts) {
+            total += n;
+        }
+        if (total == 0) {
+            throw error("%s has no %d-grams!", path, order);
+        }
+        _scores = new float[counts.length];
+        double floor = Math.log10(FLOOR / total);
+        for (int x = 0; x < counts.length; x += 1) {
+            _scores[x] = (float) (counts[x] == 0 ? floor
+                                  : Math.log10((double) counts[x] / total));
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of characters in each of my n-grams. */
+    int order() {
+        return _order;
+    }
+
+    /** Return the log10 probability of the n-gram at INDEX. */
+    float score(int index) {
+        return _scores[index];
+    }
+
+    /** Return the index of the n-gram of indices TEXT[START] onwards. */
+    int index(int[] text, int start) {
+        int result = 0;
+        for (int x = start; x < start + _order; x += 1) {
+            result = result * _size + text[x];
+        }
+        return result;
+    }
+
+    /** Return the sum of the scores of all n-grams of TEXT, a sequence of
+     *  alphabet indices. */
+    double score(int[] text) {
+        double result = 0;
+        for (int s = 0; s + _order <= text.length; s += 1) {
+            result += _scores[index(text, s)];
+        }
+        return result;
+    }
+
+    /** Add the n-grams read from IN to COUNTS. */
+    private void count(BufferedReader in, long[] counts) throws IOException {
+        String line = in.readLine();
+        while (line != null && line.trim().isEmpty()) {
+            line = in.readLine();
+        }
+        if (line == null) {
+            return;
+        }
+        if (countsLine(line)) {
+            for (; line != null; line = in.readLine()) {
+                if (!line.trim().isEmpty()) {
+                    if (!countsLine(line)) {
+                        throw error("The n-gram line \"%s\" is malformed!",
+                                    line);
+                    }
+                    String[] fields = line.trim().split("\\s+");
+                    int index = 0;
+                    for (int x = 0; x < _order; x += 1) {
+                        index = index * _size + code(fields[0].charAt(x));
+                    }
+                    counts[index] += Long.parseLong(fields[1]);
+                }
+            }
+            return;
+        }
+        int prefixes = counts.length / _size;
+        int index = 0, seen = 0;
+        for (; line != null; line = in.readLine()) {
+            for (int x = 0; x < line.length(); x += 1) {
+                int c = code(line.charAt(x));
+                if (c != -1) {
+                    index = index % prefixes * _size + c;
+                    seen = Math.min(seen + 1, _order);
+                    if (seen == _order) {
+                        counts[index] += 1;
+                    }
+                }
+            }
+        }
+    }
+
+    /** Return true iff LINE has the form "NGRAM COUNT" for one of my
+     *  n-grams. */
+    private boolean countsLine(String line) {
+        String[] fields = line.trim().split("\\s+");
+        if (fields.length != 2 || fields[0].length() != _order
+            || !fields[1].matches("\\d{1,18}")) {
+            return false;
+        }
+        for (int x = 0; x < _order; x += 1) {
+            if (code(fields[0].charAt(x)) == -1) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /** Return the index of CH, or of its upper case, in my alphabet, or -1
+     *  if neither is in it. */
+    private int code(char ch) {
+        if (_alphabet.contains(ch)) {
+            return _alphabet.toInt(ch);
+        }
+        char upper = Character.toUpperCase(ch);
+        return _alphabet.contains(upper) ? _alphabet.toInt(upper) : -1;
+    }
+
+    /** Fewest characters in an n-gram. */
+    static final int MIN_ORDER = 2;
+
+    /** Most characters in an n-gram. */
+    static final int MAX_ORDER = 4;
+
+    /** Most entries in a table. */
+    private static final long MAX_ENTRIES = 1 << 26;
+
+    /** Count given to n-grams that never occurred. */
+    private static final double FLOOR = 0.01;
+
+    /** Alphabet of my n-grams. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of characters in each n-gram. */
+    private final int _order;
+
+    /** Log10 probability of each n-gram. */
+    private final float[] _scores;
+}
@@ -0,0 +1,72 @@
+package enigma;
+
+import java.util.Objects;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/** Conversion of one long message on a ForkJoinPool.  The message is
+ *  split into chunks, and each chunk is converted by its own copy of the
+ *  machine, jumped ahead to the chunk's offset with advanceBy, so the
+ *  result is identical to converting the message sequentially.
+ *  @author Abel Yagubyan
+ */
+final class ParallelConverter extends RecursiveAction {
+
+    /** Convert the LEN characters of IN starting at OFF with MACHINE,
+     *  storing the results in OUT starting at OUTOFF, using the threads
+     *  of POOL.  MACHINE ends up as if the characters had been converted
+     *  one at a time.  If IN contains a character that is not in the
+     *  alphabet, MACHINE is unchanged, but OUT may have been partly
+     *  written.  OUT may be IN, provided that OUTOFF == OFF. */
+    static void convert(CompiledMachine machine, char[] in, int off,
+                        int len, char[] out, int outOff, ForkJoinPool pool) {
+        Objects.checkFromIndexSize(off, len, in.length);
+        Objects.checkFromIndexSize(outOff, len, out.length);
+        pool.invoke(new ParallelConverter(machine, in, off, out, outOff,
+                                          0, len));
+        machine.advanceBy(len);
+    }
+
+    /** A task converting the LEN characters of IN at OFF + START into OUT
+     *  at OUTOFF + START, with a copy of MACHINE advanced by START. */
+    private ParallelConverter(CompiledMachine machine, char[] in, int off,
+                              char[] out, int outOff, int start, int len) {
+        _machine = machine;
+        _in = in;
+        _off = off;
+        _out = out;
+        _outOff = outOff;
+        _start = start;
+        _len = len;
+    }
+
+    @Override
+    protected void compute() {
+        if (_len <= CHUNK) {
+            CompiledMachine machine = _machine.copy();
+            machine.advanceBy(_start);
+            machine.convert(_in, _off + _start, _len, _out, _outOff + _start);
+        } else {
+            int half = _len / 2;
+            invokeAll(new ParallelConverter(_machine, _in, _off, _out, _outOff,
+                                            _start, half),
+                      new ParallelConverter(_machine, _in, _off, _out, _outOff,
+                                            _start + half, _len - half));
+        }
+    }
+
+    /** Most characters converted by a single task. */
+    static final int CHUNK = 1 << 16;
+
+    /** The machine at the start of the whole message.  Never moved. */
+    private final CompiledMachine _machine;
+
+    /** Source and destination of the whole message. */
+    private final char[] _in, _out;
+
+    /** Offsets of the whole message in _in and _out. */
+    private final int _off, _outOff;
+
+    /** Offset of my part within the message, and its length. */
+    private final int _start, _len;
+}
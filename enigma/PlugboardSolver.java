@@ -0,0 +1,553 @@
+package enigma;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Paths;
+import java.util.Arrays;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+import static enigma.EnigmaException.*;
+
+/** A ciphertext-only search for the plugboard of a message whose rotor
+ *  order and start position are known (or suspected, as from
+ *  CoincidenceSearch).  The plugboard is found by hill climbing: from a
+ *  start, every pair of characters is tried in turn, plugging them
+ *  together, unplugging them, or exchanging their partners, and the
+ *  first change that raises the decryption's n-gram score is kept,
+ *  until no change does.  Climbs from random starts are spread over a
+ *  ForkJoinPool, and the best plugboard found is the result.
+ *
+ *  The substitutions that the rotors make at each position, with no
+ *  plugboard, are tabulated once per message and shared by every climb.
+ *  A climb keeps its decryption and the score of each of its n-grams,
+ *  and a change to the plugboard decrypts again only the positions whose
+ *  ciphertext character, or whose character between plugboard and
+ *  rotors, is one that the change touches, and scores again only the
+ *  n-grams containing them.
+ *  @author Abel Yagubyan
+ */
+final class PlugboardSolver {
+
+    /** Run a search, as specified by ARGS:
+     *  CONFIG CORPUS CIPHERTEXT RESTARTS SETTINGS...  CONFIG names a
+     *  configuration file, CORPUS a corpus or counts file for NgramTable,
+     *  and CIPHERTEXT a file containing one message (whitespace is
+     *  ignored).  RESTARTS is the number of climbs, and the remaining ARGS
+     *  form a settings line giving the rotors and their start position
+     *  (any plugboard in it is ignored).  The n-grams have the length
+     *  given by the property enigma.ngram (4 by default), and the starts
+     *  are drawn with the seed given by enigma.seed (0 by default).
+     *  Prints the best plugboard's score and cycles. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 5) {
+                throw error("Usage: java enigma.PlugboardSolver CONFIG "
+                            + "CORPUS CIPHERTEXT RESTARTS SETTINGS...");
+            }
+            RotorLibrary library = Main.loadLibrary(args[0]);
+            NgramTable ngrams = new NgramTable(
+                Paths.get(args[1]), library.alphabet(),
+                Integer.getInteger("enigma.ngram", NgramTable.MAX_ORDER));
+            String text;
+            try {
+                text = new String(Files.readAllBytes(Paths.get(args[2])));
+            } catch (IOException excp) {
+                throw error("could not open %s", args[2]);
+            }
+            int restarts;
+            try {
+                restarts = Integer.parseInt(args[3]);
+            } catch (NumberFormatException excp) {
+                throw error("The number of restarts must be an integer!");
+            }
+            SettingsLine line = new SettingsLine(
+                String.join(" ", Arrays.copyOfRange(args, 4, args.length)));
+            MachineSpec spec = line.spec(library);
+            PlugboardSolver solver =
+                new PlugboardSolver(spec, line.cursor(spec, library), ngrams,
+                                    text.replaceAll("\\s+", ""));
+            Solution best = solver.solve(ForkJoinPool.commonPool(), restarts,
+                                         Long.getLong("enigma.seed", 0));
+            System.out.printf("%.3f %s%n", best.score(), best);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A search for the plugboard with which a machine of SPEC's rotors,
+     *  started at the setting of START, produced CIPHERTEXT, scoring
+     *  decryptions with NGRAMS.  SPEC's own plugboard is ignored. */
+    PlugboardSolver(MachineSpec spec, MachineCursor start, NgramTable ngrams,
+                    String ciphertext) {
+        Alphabet alpha = spec.alphabet();
+        boolean same = ngrams.alphabet().size() == alpha.size();
+        for (int x = 0; same && ngrams.alphabet() != alpha
+                 && x < alpha.size(); x += 1) {
+            same = ngrams.alphabet().toChar(x) == alpha.toChar(x);
+        }
+        if (!same) {
+            throw error("The n-grams aren't over the machine's alphabet!");
+        }
+        if (ciphertext.length() < ngrams.order()) {
+            throw error("The ciphertext is too short to score!");
+        }
+        if (ciphertext.length() > MAX_TABLE / alpha.size()) {
+            throw error("The ciphertext is too long: at most %d characters"
+                        + " can be solved over this alphabet!",
+                        MAX_TABLE / alpha.size());
+        }
+        _alphabet = alpha;
+        _size = alpha.size();
+        _ngrams = ngrams;
+        _order = ngrams.order();
+        _length = ciphertext.length();
+        _cipher = new int[_length];
+        for (int x = 0; x < _length; x += 1) {
+            char c = ciphertext.charAt(x);
+            if (!alpha.contains(c)) {
+                throw error("The value isn't part of the alphabet!");
+            }
+            _cipher[x] = alpha.toInt(c);
+        }
+        Wiring[] slots = new Wiring[spec.numRotors()];
+        int[] settings = new int[slots.length];
+        for (int x = 0; x < slots.length; x += 1) {
+            slots[x] = spec.slot(x);
+            settings[x] = start.setting(x);
+        }
+        MachineSpec unplugged = new MachineSpec(
+            alpha, slots, spec.numPawls(), Cycles.parse("", alpha));
+        MachineCursor cursor = unplugged.cursor(settings);
+        _rotors = new int[_length * _size];
+        for (int p = 0; p < _length; p += 1) {
+            unplugged.step(cursor);
+            for (int c = 0; c < _size; c += 1) {
+                _rotors[p * _size + c] = unplugged.substitute(cursor, c);
+            }
+        }
+        _first = new int[_size + 1];
+        for (int c : _cipher) {
+            _first[c + 1] += 1;
+        }
+        for (int c = 0; c < _size; c += 1) {
+            _first[c + 1] += _first[c];
+        }
+        _positions = new int[_length];
+        int[] next = Arrays.copyOf(_first, _size);
+        for (int p = 0; p < _length; p += 1) {
+            _positions[next[_cipher[p]]] = p;
+            next[_cipher[p]] += 1;
+        }
+    }
+
+    /** Return the best plugboard found by RESTARTS climbs, run on the
+     *  threads of POOL from starts drawn with SEED.  The first climb
+     *  starts from an empty plugboard.  The result depends only on SEED
+     *  and RESTARTS, ties going to the earlier climb. */
+    Solution solve(ForkJoinPool pool, int restarts, long seed) {
+        if (restarts <= 0) {
+            throw error("There must be at least one restart!");
+        }
+        return pool.invoke(new Restarts(seed, 0, restarts));
+    }
+
+    /** Return the score of the decryption of my ciphertext with the
+     *  plugboard table PLUGBOARD. */
+    double score(int[] plugboard) {
+        int[] plain = new int[_length];
+        for (int p = 0; p < _length; p += 1) {
+            plain[p] = plugboard[
+                _rotors[p * _size + plugboard[_cipher[p]]]];
+        }
+        return _ngrams.score(plain);
+    }
+
+    /** A plugboard found by a climb, with its score. */
+    final class Solution {
+
+        /** The plugboard PLUGBOARD, whose decryption scores SCORE, found by
+         *  climb RESTART. */
+        private Solution(int[] plugboard, double score, int restart) {
+            _plugboard = plugboard;
+            _score = score;
+            _restart = restart;
+        }
+
+        /** Return my plugboard as a table from each index to its
+         *  partner. */
+        int[] plugboard() {
+            return _plugboard.clone();
+        }
+
+        /** Return the n-gram score of my decryption. */
+        double score() {
+            return _score;
+        }
+
+        /** Return the decryption of the ciphertext with my plugboard. */
+        String plaintext() {
+            char[] result = new char[_length];
+            for (int p = 0; p < _length; p += 1) {
+                result[p] = _alphabet.toChar(_plugboard[
+                    _rotors[p * _size + _plugboard[_cipher[p]]]]);
+            }
+            return new String(result);
+        }
+
+        /** Return my plugboard's pairs as cycles, as in a settings
+         *  line. */
+        @Override
+        public String toString() {
+            StringBuilder result = new StringBuilder();
+            for (int c = 0; c < _size; c += 1) {
+                if (_plugboard[c] > c) {
+                    if (result.length() > 0) {
+                        result.append(' ');
+                    }
+                    result.append('(').append(_alphabet.toChar(c))
+                        .append(_alphabet.toChar(_plugboard[c])).append(')');
+                }
+            }
+            return result.toString();
+        }
+
+        /** Return true iff I am better than OTHER. */
+        private boolean beats(Solution other) {
+            return _score > other._score
+                || _score == other._score && _restart < other._restart;
+        }
+
+        /** Plugboard table. */
+        private final int[] _plugboard;
+
+        /** Score of my decryption. */
+        private final double _score;
+
+        /** Number of the climb that found me. */
+        private final int _restart;
+    }
+
+    /** A task running climbs LO .. HI - 1 and returning the best of their
+     *  results. */
+    private final class Restarts extends RecursiveTask<Solution> {
+
+        /** Run climbs LO .. HI - 1 from starts drawn with SEED. */
+        Restarts(long seed, int lo, int hi) {
+            _seed = seed;
+            _lo = lo;
+            _hi = hi;
+        }
+
+        @Override
+        protected Solution compute() {
+            if (_hi - _lo > 1) {
+                int mid = (_lo + _hi) >>> 1;
+                Restarts left = new Restarts(_seed, _lo, mid);
+                left.fork();
+                Solution right = new Restarts(_seed, mid, _hi).compute();
+                Solution result = left.join();
+                return right.beats(result) ? right : result;
+            }
+            return new Climb(_seed, _lo).run();
+        }
+
+        /** Seed of the starts. */
+        private final long _seed;
+
+        /** Range of climbs to run. */
+        private final int _lo, _hi;
+    }
+
+    /** One climb: a plugboard and the decryption it gives. */
+    private final class Climb {
+
+        /** Climb number RESTART, from a start drawn with SEED. */
+        Climb(long seed, int restart) {
+            _restart = restart;
+            _plug = new int[_size];
+            for (int c = 0; c < _size; c += 1) {
+                _plug[c] = c;
+            }
+            if (restart > 0) {
+                Random random = new Random(seed + restart * SEED_STEP);
+                int[] order = _plug.clone();
+                for (int x = _size - 1; x > 0; x -= 1) {
+                    int k = random.nextInt(x + 1);
+                    int t = order[x];
+                    order[x] = order[k];
+                    order[k] = t;
+                }
+                int pairs = random.nextInt(_size / 2 + 1);
+                for (int x = 0; x < 2 * pairs; x += 2) {
+                    _plug[order[x]] = order[x + 1];
+                    _plug[order[x + 1]] = order[x];
+                }
+            }
+            _middle = new int[_length];
+            _plain = new int[_length];
+            _head = new int[_size];
+            _next = new int[_length];
+            _prev = new int[_length];
+            Arrays.fill(_head, -1);
+            for (int p = 0; p < _length; p += 1) {
+                _middle[p] = _rotors[p * _size + _plug[_cipher[p]]];
+                _plain[p] = _plug[_middle[p]];
+                link(p);
+            }
+            int windows = _length - _order + 1;
+            _scores = new float[windows];
+            for (int s = 0; s < windows; s += 1) {
+                _scores[s] = _ngrams.score(_ngrams.index(_plain, s));
+            }
+            _touched = new int[_length];
+            _old = new int[_length];
+            _stamp = new int[_length];
+            _windows = new int[windows];
+            _newScores = new float[windows];
+            _windowStamp = new int[windows];
+        }
+
+        /** Climb until no change to my plugboard improves its score, and
+         *  return the result. */
+        Solution run() {
+            boolean improved = true;
+            while (improved) {
+                improved = false;
+                for (int i = 0; i < _size; i += 1) {
+                    for (int j = i + 1; j < _size; j += 1) {
+                        improved |= improve(i, j);
+                    }
+                }
+            }
+            double total = 0;
+            for (float s : _scores) {
+                total += s;
+            }
+            return new Solution(_plug.clone(), total, _restart);
+        }
+
+        /** Try the changes to my plugboard that connect or disconnect
+         *  characters I and J, keeping the first that improves my score.
+         *  Return true iff one did. */
+        private boolean improve(int i, int j) {
+            int k = _plug[i], m = _plug[j];
+            if (k == j) {
+                return attempt(i, i, j, j, -1, -1, -1, -1);
+            } else if (k == i && m == j) {
+                return attempt(i, j, j, i, -1, -1, -1, -1);
+            } else if (k == i) {
+                return attempt(i, j, j, i, m, m, -1, -1)
+                    || attempt(i, m, m, i, j, j, -1, -1);
+            } else if (m == j) {
+                return attempt(i, j, j, i, k, k, -1, -1)
+                    || attempt(j, k, k, j, i, i, -1, -1);
+            } else {
+                return attempt(i, j, j, i, k, m, m, k)
+                    || attempt(i, m, m, i, j, k, k, j);
+            }
+        }
+
+        /** Change my plugboard so that A maps to A2, B to B2, C to C2 and
+         *  D to D2, C and D being ignored if they are -1, and keep the
+         *  change iff it raises my score.  Return true iff it was
+         *  kept. */
+        private boolean attempt(int a, int a2, int b, int b2, int c,
+                                int c2, int d, int d2) {
+            _letters[0] = a;
+            _letters[1] = b;
+            _letters[2] = c;
+            _letters[3] = d;
+            _targets[0] = a2;
+            _targets[1] = b2;
+            _targets[2] = c2;
+            _targets[3] = d2;
+            int n = c == -1 ? 2 : d == -1 ? 3 : 4;
+            _stampNow += 1;
+            int touched = 0;
+            for (int x = 0; x < n; x += 1) {
+                int l = _letters[x];
+                for (int k = _first[l]; k < _first[l + 1]; k += 1) {
+                    touched = touch(_positions[k], touched);
+                }
+                for (int p = _head[l]; p != -1; p = _next[p]) {
+                    touched = touch(p, touched);
+                }
+            }
+            for (int x = 0; x < n; x += 1) {
+                _saved[x] = _plug[_letters[x]];
+                _plug[_letters[x]] = _targets[x];
+            }
+            int windows = 0;
+            double delta = 0;
+            int last = _scores.length - 1;
+            for (int t = 0; t < touched; t += 1) {
+                int p = _touched[t];
+                _old[t] = _plain[p];
+                _plain[p] = _plug[_rotors[p * _size + _plug[_cipher[p]]]];
+            }
+            for (int t = 0; t < touched; t += 1) {
+                int p = _touched[t];
+                for (int s = Math.max(0, p - _order + 1);
+                     s <= Math.min(p, last); s += 1) {
+                    if (_windowStamp[s] != _stampNow) {
+                        _windowStamp[s] = _stampNow;
+                        float score = _ngrams.score(_ngrams.index(_plain, s));
+                        _windows[windows] = s;
+                        _newScores[windows] = score;
+                        windows += 1;
+                        delta += score - _scores[s];
+                    }
+                }
+            }
+            if (delta > EPSILON) {
+                for (int w = 0; w < windows; w += 1) {
+                    _scores[_windows[w]] = _newScores[w];
+                }
+                for (int t = 0; t < touched; t += 1) {
+                    int p = _touched[t];
+                    int middle = _rotors[p * _size + _plug[_cipher[p]]];
+                    if (middle != _middle[p]) {
+                        unlink(p);
+                        _middle[p] = middle;
+                        link(p);
+                    }
+                }
+                return true;
+            }
+            for (int x = 0; x < n; x += 1) {
+                _plug[_letters[x]] = _saved[x];
+            }
+            for (int t = 0; t < touched; t += 1) {
+                _plain[_touched[t]] = _old[t];
+            }
+            return false;
+        }
+
+        /** Add position P to the first TOUCHED positions of _touched,
+         *  unless it is there already, and return the new number. */
+        private int touch(int p, int touched) {
+            if (_stamp[p] != _stampNow) {
+                _stamp[p] = _stampNow;
+                _touched[touched] = p;
+                touched += 1;
+            }
+            return touched;
+        }
+
+        /** Add position P to the list of its middle character. */
+        private void link(int p) {
+            int m = _middle[p];
+            _prev[p] = -1;
+            _next[p] = _head[m];
+            if (_head[m] != -1) {
+                _prev[_head[m]] = p;
+            }
+            _head[m] = p;
+        }
+
+        /** Remove position P from the list of its middle character. */
+        private void unlink(int p) {
+            if (_prev[p] == -1) {
+                _head[_middle[p]] = _next[p];
+            } else {
+                _next[_prev[p]] = _next[p];
+            }
+            if (_next[p] != -1) {
+                _prev[_next[p]] = _prev[p];
+            }
+        }
+
+        /** Number of this climb. */
+        private final int _restart;
+
+        /** Plugboard table. */
+        private final int[] _plug;
+
+        /** Character of each position between the rotors and the
+         *  plugboard, on the way out. */
+        private final int[] _middle;
+
+        /** Decryption of each position. */
+        private final int[] _plain;
+
+        /** First position of each middle character's list, or -1. */
+        private final int[] _head;
+
+        /** Next and previous positions in the same list, or -1. */
+        private final int[] _next, _prev;
+
+        /** Score of the n-gram starting at each position. */
+        private final float[] _scores;
+
+        /** Positions decrypted again by the current attempt. */
+        private final int[] _touched;
+
+        /** Their decryptions before the attempt. */
+        private final int[] _old;
+
+        /** _stampNow at each position touched by the current attempt. */
+        private final int[] _stamp;
+
+        /** N-grams scored again by the current attempt. */
+        private final int[] _windows;
+
+        /** Their new scores. */
+        private final float[] _newScores;
+
+        /** _stampNow at each n-gram scored by the current attempt. */
+        private final int[] _windowStamp;
+
+        /** Number of the current attempt. */
+        private int _stampNow;
+
+        /** Characters whose partners the current attempt changes. */
+        private final int[] _letters = new int[4];
+
+        /** Their new partners. */
+        private final int[] _targets = new int[4];
+
+        /** Their old partners. */
+        private final int[] _saved = new int[4];
+    }
+
+    /** Least rise in score counted as an improvement. */
+    private static final double EPSILON = 1e-4;
+
+    /** Difference between the seeds of successive climbs. */
+    private static final long SEED_STEP = 0x9E3779B97F4A7C15L;
+
+    /** Most entries of the table of rotor substitutions, which has one per
+     *  ciphertext position and character: the largest array every JVM
+     *  allocates. */
+    private static final int MAX_TABLE = Integer.MAX_VALUE - 8;
+
+    /** Alphabet of the machine. */
+    private final Alphabet _alphabet;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Scores of decryptions. */
+    private final NgramTable _ngrams;
+
+    /** Number of characters in each n-gram. */
+    private final int _order;
+
+    /** Length of the ciphertext. */
+    private final int _length;
+
+    /** The ciphertext, as alphabet indices. */
+    private final int[] _cipher;
+
+    /** Entry P * size + C is the image of C under the rotors at position
+     *  P, with no plugboard. */
+    private final int[] _rotors;
+
+    /** The positions of each ciphertext character C are
+     *  _positions[_first[C]] .. _positions[_first[C + 1] - 1]. */
+    private final int[] _first, _positions;
+}
@@ -0,0 +1,136 @@
+package enigma;
+
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/** Metrics kept in memory: a striped counter per Counter, and per Stage
+ *  a histogram of durations with a bucket for each power of two
+ *  nanoseconds.  Recording takes no locks and allocates nothing, so it
+ *  may be used from any number of threads at once.
+ *  @author Abel Yagubyan
+ */
+class RecordingMetrics implements Metrics {
+
+    /** Empty metrics. */
+    RecordingMetrics() {
+        int stages = Stage.values().length;
+        _counters = new LongAdder[Counter.values().length];
+        for (int x = 0; x < _counters.length; x += 1) {
+            _counters[x] = new LongAdder();
+        }
+        _buckets = new AtomicLongArray(stages * BUCKETS);
+        _totals = new LongAdder[stages];
+        _amounts = new LongAdder[stages];
+        for (int x = 0; x < stages; x += 1) {
+            _totals[x] = new LongAdder();
+            _amounts[x] = new LongAdder();
+        }
+    }
+
+    @Override
+    public long start(Stage stage) {
+        return System.nanoTime();
+    }
+
+    @Override
+    public void end(Stage stage, long start, long amount) {
+        long nanos = Math.max(System.nanoTime() - start, 0);
+        int k = stage.ordinal();
+        _buckets.incrementAndGet(k * BUCKETS + bucket(nanos));
+        _totals[k].add(nanos);
+        _amounts[k].add(amount);
+    }
+
+    @Override
+    public void count(Counter counter, long n) {
+        _counters[counter.ordinal()].add(n);
+    }
+
+    /** Return the total of COUNTER. */
+    long total(Counter counter) {
+        return _counters[counter.ordinal()].sum();
+    }
+
+    /** Return the number of times STAGE has been recorded. */
+    long count(Stage stage) {
+        long result = 0;
+        for (int b = 0; b < BUCKETS; b += 1) {
+            result += _buckets.get(stage.ordinal() * BUCKETS + b);
+        }
+        return result;
+    }
+
+    /** Return the total nanoseconds spent in STAGE. */
+    long nanos(Stage stage) {
+        return _totals[stage.ordinal()].sum();
+    }
+
+    /** Return an upper bound on the FRACTION quantile (0 < FRACTION <= 1)
+     *  of the durations of STAGE in nanoseconds, or 0 if there are
+     *  none. */
+    long quantile(Stage stage, double fraction) {
+        long n = count(stage);
+        long rank = (long) Math.ceil(fraction * n);
+        long seen = 0;
+        for (int b = 0; b < BUCKETS && n > 0; b += 1) {
+            seen += _buckets.get(stage.ordinal() * BUCKETS + b);
+            if (seen >= rank) {
+                return b == BUCKETS - 1 ? Long.MAX_VALUE : (1L << b) - 1;
+            }
+        }
+        return 0;
+    }
+
+    /** Print my counters and a line per stage to OUT. */
+    void report(PrintStream out) {
+        for (Counter counter : Counter.values()) {
+            out.printf("enigma %-16s %d%n",
+                       counter.name().toLowerCase(), total(counter));
+        }
+        for (Stage stage : Stage.values()) {
+            long n = count(stage);
+            if (n == 0) {
+                continue;
+            }
+            long total = nanos(stage);
+            out.printf("enigma %-16s n=%d mean=%.1fus p50<%.1fus "
+                       + "p90<%.1fus p99<%.1fus amount=%d rate=%.1f/s%n",
+                       stage.name().toLowerCase(), n,
+                       total / 1e3 / n, micros(quantile(stage, .5)),
+                       micros(quantile(stage, .9)),
+                       micros(quantile(stage, .99)),
+                       _amounts[stage.ordinal()].sum(),
+                       total == 0 ? 0.0
+                       : _amounts[stage.ordinal()].sum()
+                         * (double) TimeUnit.SECONDS.toNanos(1) / total);
+        }
+    }
+
+    /** Return NANOS in microseconds. */
+    private static double micros(long nanos) {
+        return nanos / 1e3;
+    }
+
+    /** Return the bucket of a duration of NANOS: bucket B holds
+     *  durations below 2**B nanoseconds and at least half that. */
+    private static int bucket(long nanos) {
+        return Math.min(64 - Long.numberOfLeadingZeros(nanos), BUCKETS - 1);
+    }
+
+    /** Number of buckets in each histogram. */
+    private static final int BUCKETS = 48;
+
+    /** Total of each Counter. */
+    private final LongAdder[] _counters;
+
+    /** Entry S * BUCKETS + B is the count of bucket B of Stage S. */
+    private final AtomicLongArray _buckets;
+
+    /** Total nanoseconds of each Stage. */
+    private final LongAdder[] _totals;
+
+    /** Total characters or bytes handled by each Stage. */
+    private final LongAdder[] _amounts;
+}
@@ -0,0 +1,236 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.Collections;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static enigma.EnigmaException.*;
+
+/** The rotors described by a configuration file, together with the shape
+ *  of the machines they fit: alphabet, number of slots and number of
+ *  pawls.  Each rotor's wiring is flattened once, so specs built from one
+ *  library share their tables.  A library never changes and may be used
+ *  from any thread; its Rotor objects are only for building Machines.
+ *  A library may also be loaded from a ConfigImage, in which case it
+ *  starts from the wirings alone.
+ *  @author Abel Yagubyan
+ */
+final class RotorLibrary {
+
+    /** A library of ROTORS over ALPHA for machines with NUMROTORS slots
+     *  and PAWLS pawls.  OFFSET is the amount added (modulo the size of
+     *  ALPHA) to the index of each character of a settings line's rotor
+     *  settings. */
+    RotorLibrary(Alphabet alpha, int numRotors, int pawls,
+                 Collection<Rotor> rotors, int offset) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _offset = offset;
+        _rotors = new LinkedHashMap<>();
+        _wirings = new LinkedHashMap<>();
+        for (Rotor rotor : rotors) {
+            String name = rotor.name().toUpperCase();
+            _rotors.put(name, rotor);
+            _wirings.put(name, new Wiring(rotor));
+        }
+    }
+
+    /** A library of rotors wired as in WIRINGS over ALPHA, for machines
+     *  with NUMROTORS slots and PAWLS pawls, with settings offset by
+     *  OFFSET as for the constructor above.  Rotor objects are only made
+     *  from the wirings if rotors() is called. */
+    RotorLibrary(Alphabet alpha, int numRotors, int pawls, Wiring[] wirings,
+                 int offset) {
+        _alphabet = alpha;
+        _numRotors = numRotors;
+        _pawls = pawls;
+        _offset = offset;
+        _wirings = new LinkedHashMap<>();
+        for (Wiring wiring : wirings) {
+            _wirings.put(wiring.name().toUpperCase(), wiring);
+        }
+    }
+
+    /** Return my alphabet. */
+    Alphabet alphabet() {
+        return _alphabet;
+    }
+
+    /** Return the number of rotor slots of my machines. */
+    int numRotors() {
+        return _numRotors;
+    }
+
+    /** Return the number of pawls of my machines. */
+    int numPawls() {
+        return _pawls;
+    }
+
+    /** Return the amount added to the index of each character of a
+     *  settings line's rotor settings. */
+    int offset() {
+        return _offset;
+    }
+
+    /** Return my rotors, in the order of the configuration file. */
+    synchronized Collection<Rotor> rotors() {
+        if (_rotors == null) {
+            _rotors = new LinkedHashMap<>();
+            for (Map.Entry<String, Wiring> entry : _wirings.entrySet()) {
+                _rotors.put(entry.getKey(), rotor(entry.getValue()));
+            }
+        }
+        return Collections.unmodifiableCollection(_rotors.values());
+    }
+
+    /** Return the wirings of my rotors, in the order of the configuration
+     *  file. */
+    Collection<Wiring> wirings() {
+        return Collections.unmodifiableCollection(_wirings.values());
+    }
+
+    /** Return the wiring of the rotor named NAME (in any case). */
+    Wiring wiring(String name) {
+        Wiring result = _wirings.get(name.toUpperCase());
+        if (result == null) {
+            throw error("The rotor doesn't exist!");
+        }
+        return result;
+    }
+
+    /** Return the configuration of a machine whose slots hold the rotors
+     *  named NAMES (NAMES[0] naming the reflector) and whose plugboard is
+     *  PLUGBOARD, checking NAMES as Machine.insertRotors does. */
+    MachineSpec spec(String[] names, Permutation plugboard) {
+        return spec(names, Cycles.table(plugboard));
+    }
+
+    /** Return the configuration of a machine whose slots hold the rotors
+     *  named NAMES, checked as by spec(NAMES, Permutation), and whose
+     *  plugboard maps index K to PLUGBOARD[K]. */
+    MachineSpec spec(String[] names, int[] plugboard) {
+        Wiring[] slots = new Wiring[names.length];
+        Set<String> used = new HashSet<>();
+        int moving = 0;
+        for (int x = 0; x < names.length; x += 1) {
+            if (!used.add(names[x].toUpperCase())) {
+                throw error("Rotors can't be used more than once!");
+            }
+            slots[x] = wiring(names[x]);
+            if (slots[x].rotates()) {
+                moving += 1;
+            }
+        }
+        if (moving != _pawls) {
+            throw error("Pawls don't match the inserted amount!");
+        }
+        if (names.length == 0 || !slots[0].reflecting()) {
+            throw error("The first rotor has to be a reflector!");
+        }
+        for (int x = 1; x < names.length; x += 1) {
+            if (slots[x].reflecting()) {
+                throw error("Only the first rotor can be a reflector!");
+            }
+        }
+        if (names.length != _numRotors) {
+            throw error("_rotnum doesn't match inserted no. of rotors!");
+        }
+        return new MachineSpec(_alphabet, slots, _pawls, plugboard);
+    }
+
+    /** Return every rotor order that a physical machine of my shape can
+     *  hold: a reflector, then non-moving rotors in the slots without
+     *  pawls, then moving rotors in the slots with pawls, each rotor used
+     *  at most once. */
+    List<String[]> orders() {
+        List<String> reflectors = new ArrayList<>();
+        List<String> fixed = new ArrayList<>();
+        List<String> moving = new ArrayList<>();
+        for (Map.Entry<String, Wiring> entry : _wirings.entrySet()) {
+            Wiring wiring = entry.getValue();
+            if (wiring.reflecting()) {
+                reflectors.add(entry.getKey());
+            } else if (wiring.rotates()) {
+                moving.add(entry.getKey());
+            } else {
+                fixed.add(entry.getKey());
+            }
+        }
+        List<String[]> result = new ArrayList<>();
+        String[] order = new String[_numRotors];
+        for (String reflector : reflectors) {
+            order[0] = reflector;
+            fillOrders(order, 1, fixed, moving, new HashSet<>(), result);
+        }
+        return result;
+    }
+
+    /** Fill slots K and above of ORDER in every possible way from FIXED
+     *  and MOVING, avoiding the rotors in USED, adding each completed
+     *  order to RESULT. */
+    private void fillOrders(String[] order, int k, List<String> fixed,
+                            List<String> moving, Set<String> used,
+                            List<String[]> result) {
+        if (k == _numRotors) {
+            result.add(order.clone());
+            return;
+        }
+        for (String name : k < _numRotors - _pawls ? fixed : moving) {
+            if (used.add(name)) {
+                order[k] = name;
+                fillOrders(order, k + 1, fixed, moving, used, result);
+                used.remove(name);
+            }
+        }
+    }
+
+    /** Return a rotor wired as WIRING. */
+    private Rotor rotor(Wiring wiring) {
+        Permutation perm = Cycles.permutation(wiring.forward(), _alphabet);
+        if (wiring.reflecting()) {
+            return new Reflector(wiring.name(), perm);
+        } else if (!wiring.rotates()) {
+            return new FixedRotor(wiring.name(), perm);
+        }
+        StringBuilder notches = new StringBuilder();
+        boolean[] notched = wiring.notches();
+        for (int x = 0; x < notched.length; x += 1) {
+            if (notched[x]) {
+                notches.append(_alphabet.toChar(x));
+            }
+        }
+        return new MovingRotor(wiring.name(), perm, notches.toString());
+    }
+
+    /** Return the rotor position denoted by the settings character CH. */
+    int settingIndex(char ch) {
+        return (_alphabet.toInt(ch) + _offset) % _alphabet.size();
+    }
+
+    /** Return the settings character denoting rotor position K. */
+    char settingChar(int k) {
+        return _alphabet.toChar(Math.floorMod(k - _offset, _alphabet.size()));
+    }
+
+    /** Common alphabet of my rotors. */
+    private final Alphabet _alphabet;
+
+    /** Number of rotor slots and pawls of my machines. */
+    private final int _numRotors, _pawls;
+
+    /** Offset applied to the characters of rotor settings. */
+    private final int _offset;
+
+    /** My rotors by upper-case name, in configuration order, or null
+     *  until rotors() first needs them. */
+    private Map<String, Rotor> _rotors;
+
+    /** Wirings of my rotors by upper-case name, in configuration order. */
+    private final Map<String, Wiring> _wirings;
+}
@@ -0,0 +1,393 @@
+package enigma;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.PriorityQueue;
+import java.util.concurrent.PriorityBlockingQueue;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static enigma.EnigmaException.*;
+
+/** A CoincidenceSearch that survives being killed.  The search's units
+ *  run on a fixed number of threads, taken from a short priority queue
+ *  in order of unit number, so that the units done form a run from 0 and
+ *  a few more beyond it.  The queue is topped up as units finish, so
+ *  memory does not grow with the keyspace.  Every so often, and when the
+ *  JVM shuts down, the scheduler writes a checkpoint: the units done, as
+ *  ranges, and the best candidates found in them, each as its rank and
+ *  score.  A scheduler given an existing checkpoint of the same search
+ *  skips the units it records and starts from its candidates, so that
+ *  an interrupted search, resumed, finds just what it would have found
+ *  uninterrupted, having lost at most the units under way when it was
+ *  killed and those done since the last checkpoint.
+ *  @author Abel Yagubyan
+ */
+final class SearchScheduler {
+
+    /** Run a resumable search, as specified by ARGS: CONFIG CIPHERTEXT
+     *  COUNT CHECKPOINT [ROTOR ...], as for CoincidenceSearch, with
+     *  progress kept in the file CHECKPOINT, which is resumed from if it
+     *  exists.  The property enigma.jobs gives the number of threads (by
+     *  default, one per processor), and enigma.checkpoint the seconds
+     *  between checkpoints (by default, 60). */
+    public static void main(String... args) {
+        try {
+            if (args.length < 4) {
+                throw error("Usage: java enigma.SearchScheduler CONFIG "
+                            + "CIPHERTEXT COUNT CHECKPOINT [ROTOR ...]");
+            }
+            RotorLibrary library = Main.loadLibrary(args[0]);
+            String text;
+            try {
+                text = new String(Files.readAllBytes(Paths.get(args[1])));
+            } catch (IOException excp) {
+                throw error("could not open %s", args[1]);
+            }
+            int count;
+            try {
+                count = Integer.parseInt(args[2]);
+            } catch (NumberFormatException excp) {
+                throw error("The count must be an integer!");
+            }
+            CoincidenceSearch search =
+                new CoincidenceSearch(library, text.replaceAll("\\s+", ""));
+            if (args.length > 4) {
+                search.restrictTo(Arrays.copyOfRange(args, 4, args.length));
+            }
+            SearchScheduler scheduler =
+                new SearchScheduler(search, count, Paths.get(args[3]));
+            if (scheduler.done() > 0) {
+                System.err.printf("enigma search: resuming with %d of %d "
+                                  + "units done%n", scheduler.done(),
+                                  search.units());
+            }
+            int threads = Integer.getInteger(
+                "enigma.jobs", Runtime.getRuntime().availableProcessors());
+            long interval = Long.getLong("enigma.checkpoint",
+                                         DEFAULT_INTERVAL);
+            for (CoincidenceSearch.Candidate cand
+                     : scheduler.run(threads, interval * 1000)) {
+                System.out.printf("%.5f %s%n", cand.coincidence(), cand);
+            }
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A scheduler of SEARCH for its COUNT best candidates, keeping its
+     *  progress in the file CHECKPOINT, which it resumes from if it
+     *  exists. */
+    SearchScheduler(CoincidenceSearch search, int count, Path checkpoint) {
+        if (count <= 0) {
+            throw error("The count must be positive!");
+        }
+        _search = search;
+        _count = count;
+        _checkpoint = checkpoint;
+        _units = search.units();
+        if (_units > Integer.MAX_VALUE) {
+            throw error("The search has too many units to schedule!");
+        }
+        _done = new BitSet((int) _units);
+        _best = new PriorityQueue<>(count, CoincidenceSearch.WORST_FIRST);
+        resume();
+    }
+
+    /** Run the units not yet done on THREADS threads, writing a
+     *  checkpoint every INTERVAL milliseconds, when the JVM shuts down,
+     *  and at the end.  Return the best candidates, best first, as
+     *  CoincidenceSearch.search does. */
+    List<CoincidenceSearch.Candidate> run(int threads, long interval) {
+        if (threads <= 0 || interval <= 0) {
+            throw error("The threads and interval must be positive!");
+        }
+        ThreadPoolExecutor pool =
+            new ThreadPoolExecutor(threads, threads, 0, TimeUnit.SECONDS,
+                                   new PriorityBlockingQueue<>());
+        Thread hook = new Thread(this::checkpoint);
+        Runtime.getRuntime().addShutdownHook(hook);
+        try {
+            synchronized (this) {
+                _pool = pool;
+                _next = _done.nextClearBit(0);
+                _window = threads * QUEUED_PER_THREAD;
+                feed();
+                long next = System.currentTimeMillis() + interval;
+                while (_pending > 0 && _failure == null) {
+                    long wait = next - System.currentTimeMillis();
+                    if (wait <= 0) {
+                        write();
+                        next = System.currentTimeMillis() + interval;
+                    } else {
+                        wait(wait);
+                    }
+                }
+            }
+        } catch (InterruptedException excp) {
+            Thread.currentThread().interrupt();
+            throw error("The search was interrupted");
+        } finally {
+            pool.shutdownNow();
+            checkpoint();
+            try {
+                Runtime.getRuntime().removeShutdownHook(hook);
+            } catch (IllegalStateException excp) {
+                /* Already shutting down, and checkpointed. */
+            }
+        }
+        if (_failure != null) {
+            throw _failure;
+        }
+        List<CoincidenceSearch.Candidate> result = new ArrayList<>(_best);
+        result.sort(CoincidenceSearch.WORST_FIRST.reversed());
+        return result;
+    }
+
+    /** Return the number of units done. */
+    synchronized int done() {
+        return _done.cardinality();
+    }
+
+    /** Write my checkpoint, reporting on the standard error if it
+     *  can't be written. */
+    synchronized void checkpoint() {
+        try {
+            write();
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+    }
+
+    /** A unit of the search, ordered by number. */
+    private final class Unit implements Runnable, Comparable<Unit> {
+
+        /** Unit number UNIT. */
+        Unit(int unit) {
+            _unit = unit;
+        }
+
+        @Override
+        public void run() {
+            List<CoincidenceSearch.Candidate> found;
+            try {
+                found = _search.search(_unit, _count);
+            } catch (RuntimeException | Error excp) {
+                fail(excp);
+                return;
+            }
+            finish(_unit, found);
+        }
+
+        @Override
+        public int compareTo(Unit other) {
+            return Integer.compare(_unit, other._unit);
+        }
+
+        /** My number. */
+        private final int _unit;
+    }
+
+    /** Record that unit UNIT is done, having found the candidates
+     *  FOUND. */
+    private synchronized void finish(int unit,
+                                     List<CoincidenceSearch.Candidate> found) {
+        for (CoincidenceSearch.Candidate cand : found) {
+            CoincidenceSearch.offer(_best, cand, _count);
+        }
+        _done.set(unit);
+        _pending -= 1;
+        feed();
+        if (_pending == 0) {
+            notifyAll();
+        }
+    }
+
+    /** Queue the next units not yet done, up to my window. */
+    private synchronized void feed() {
+        while (_pending < _window && _next < _units && _failure == null) {
+            _pending += 1;
+            _pool.execute(new Unit(_next));
+            _next = _done.nextClearBit(_next + 1);
+        }
+    }
+
+    /** Record that a unit failed with EXCP, ending the search. */
+    private synchronized void fail(Throwable excp) {
+        if (_failure == null) {
+            _failure = excp instanceof EnigmaException
+                ? (EnigmaException) excp
+                : error("A unit of the search failed: %s", excp);
+        }
+        notifyAll();
+    }
+
+    /** Start from the progress recorded in my checkpoint, if it
+     *  exists. */
+    private void resume() {
+        try (BufferedReader in = Files.newBufferedReader(_checkpoint)) {
+            String[] header = fields(in, 4);
+            if (!header[0].equals(MAGIC)
+                || !header[1].equals(Integer.toHexString(
+                       _search.fingerprint()))
+                || !header[2].equals(Long.toString(_units))
+                || !header[3].equals(Integer.toString(_count))) {
+                throw error("%s is not a checkpoint of this search",
+                            _checkpoint);
+            }
+            for (String range : fields(in, -1)) {
+                int dash = range.indexOf('-');
+                int lo = unit(range.substring(0, dash < 0 ? range.length()
+                                                 : dash));
+                int hi = dash < 0 ? lo : unit(range.substring(dash + 1));
+                _done.set(lo, hi + 1);
+            }
+            for (String line = in.readLine(); line != null;
+                 line = in.readLine()) {
+                String[] cand = line.trim().split(" ");
+                if (cand.length != 2) {
+                    throw error("%s is malformed", _checkpoint);
+                }
+                CoincidenceSearch.offer(_best,
+                                        _search.candidate(number(cand[0]),
+                                                          number(cand[1])),
+                                        _count);
+            }
+        } catch (NoSuchFileException excp) {
+            return;
+        } catch (IOException excp) {
+            throw error("could not read %s", _checkpoint);
+        }
+    }
+
+    /** Return the fields of the next line of IN, which must have COUNT
+     *  of them unless COUNT is negative. */
+    private String[] fields(BufferedReader in, int count) throws IOException {
+        String line = in.readLine();
+        if (line == null) {
+            throw error("%s is truncated", _checkpoint);
+        }
+        line = line.trim();
+        String[] result = line.isEmpty() ? new String[0] : line.split(" ");
+        if (count >= 0 && result.length != count) {
+            throw error("%s is malformed", _checkpoint);
+        }
+        return result;
+    }
+
+    /** Return the unit numbered S in my checkpoint. */
+    private int unit(String s) {
+        long result = number(s);
+        if (result >= _units) {
+            throw error("%s is malformed", _checkpoint);
+        }
+        return (int) result;
+    }
+
+    /** Return the non-negative number S in my checkpoint. */
+    private long number(String s) {
+        try {
+            long result = Long.parseLong(s);
+            if (result >= 0) {
+                return result;
+            }
+        } catch (NumberFormatException excp) {
+            /* Fall through. */
+        }
+        throw error("%s is malformed", _checkpoint);
+    }
+
+    /** Write my progress to my checkpoint, replacing it only once the new
+     *  one is complete: a header line, a line of the ranges of units
+     *  done, and a line per candidate. */
+    private synchronized void write() {
+        Path temp = _checkpoint.resolveSibling(_checkpoint.getFileName()
+                                               + ".tmp");
+        try {
+            try (BufferedWriter out = Files.newBufferedWriter(temp)) {
+                out.write(String.format("%s %s %d %d%n", MAGIC,
+                                        Integer.toHexString(
+                                            _search.fingerprint()),
+                                        _units, _count));
+                String sep = "";
+                for (int lo = _done.nextSetBit(0); lo >= 0;
+                     lo = _done.nextSetBit(lo)) {
+                    int hi = _done.nextClearBit(lo);
+                    out.write(sep + lo + (hi - 1 > lo ? "-" + (hi - 1) : ""));
+                    sep = " ";
+                    lo = hi;
+                }
+                out.newLine();
+                for (CoincidenceSearch.Candidate cand : _best) {
+                    out.write(cand.rank() + " " + cand.score());
+                    out.newLine();
+                }
+            }
+            try {
+                Files.move(temp, _checkpoint,
+                           StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException excp) {
+                Files.move(temp, _checkpoint,
+                           StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException excp) {
+            throw error("could not write %s", _checkpoint);
+        }
+    }
+
+    /** First field of a checkpoint, naming its format. */
+    private static final String MAGIC = "enigma-search-1";
+
+    /** Units queued or running per thread. */
+    private static final int QUEUED_PER_THREAD = 4;
+
+    /** Default seconds between checkpoints. */
+    private static final long DEFAULT_INTERVAL = 60;
+
+    /** The search being scheduled. */
+    private final CoincidenceSearch _search;
+
+    /** Number of candidates to keep. */
+    private final int _count;
+
+    /** File holding my progress. */
+    private final Path _checkpoint;
+
+    /** Number of units of the search. */
+    private final long _units;
+
+    /** The units done. */
+    private final BitSet _done;
+
+    /** The best candidates of the units done, worst first. */
+    private final PriorityQueue<CoincidenceSearch.Candidate> _best;
+
+    /** The pool running the units. */
+    private ThreadPoolExecutor _pool;
+
+    /** The next unit to queue. */
+    private int _next;
+
+    /** Most units queued or running at once. */
+    private int _window;
+
+    /** Number of units queued or running. */
+    private int _pending;
+
+    /** The first failure of a unit, or null. */
+    private EnigmaException _failure;
+}
@@ -0,0 +1,356 @@
+package enigma;
+
+import java.util.ArrayDeque;
+import java.util.Arrays;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+
+import static enigma.EnigmaException.*;
+
+/** The sessions of many machines of one RotorLibrary, each packed into a
+ *  single long, for holding millions of mostly idle sessions without a
+ *  Machine, or even a MachineCursor, apiece.  A session is named by an
+ *  int handle.  Its state holds the positions of slots 1 and up, each in
+ *  just enough bits for the alphabet, and above them the number of its
+ *  spec.  Specs are interned, so that all sessions with the same rotors
+ *  and plugboard share one, whatever their positions.
+ *
+ *  The arena holds one full spec, with its tables and cache of composed
+ *  tables, for each rotor order ever opened: at most the number of
+ *  orders the library can form.  Each distinct plugboard in use with an
+ *  order adds only a spec sharing those tables, costing a few hundred
+ *  bytes.  That spec, and its number, are freed when the last session
+ *  using it closes, so memory grows with the distinct keys of the open
+ *  sessions, never with every key ever seen.
+ *
+ *  The states live in pages of longs that never move once allocated, so
+ *  the arena's only objects are its pages, its specs and one small
+ *  buffer per converting thread.  Converting unpacks a session's
+ *  positions into that thread's buffer, converts there, and packs them
+ *  back, allocating nothing.  Sessions may be opened, converted and
+ *  closed from any thread, but one session must not be converted by two
+ *  threads at once, just as a MachineCursor must not.
+ *  @author Abel Yagubyan
+ */
+final class SessionArena {
+
+    /** An empty arena for machines of LIBRARY. */
+    SessionArena(RotorLibrary library) {
+        Alphabet alpha = library.alphabet();
+        _machines = new MachineCache(library, MACHINE_CACHE_SIZE);
+        _size = alpha.size();
+        _numRotors = library.numRotors();
+        _bits = 32 - Integer.numberOfLeadingZeros(_size - 1);
+        _positionBits = _bits * (_numRotors - 1);
+        if (_positionBits > MAX_POSITION_BITS) {
+            throw error("The rotor positions don't fit in a session!");
+        }
+        _specs = new MachineSpec[0];
+        _shapes = new Shape[0];
+        _refs = new int[0];
+        _ids = new HashMap<>();
+        _freeIds = new ArrayDeque<>();
+        _orders = new HashMap<>();
+        _pages = new long[0][];
+        _free = -1;
+        _positions = ThreadLocal.withInitial(() -> new int[_numRotors]);
+    }
+
+    /** Open a session set up by the settings line SETTINGS, which must
+     *  name its rotors, and return its handle. */
+    int open(String settings) {
+        SettingsLine line = new SettingsLine(settings);
+        if (line.rotors().length == 0) {
+            throw error("The settings must name the rotors!");
+        }
+        CompiledMachine machine = _machines.get(
+            line.rotors(), line.setting(),
+            line.plugboard() == null ? "" : line.plugboard());
+        return open(machine.spec(), machine.cursor());
+    }
+
+    /** Open a session of SPEC at the positions of CURSOR, and return its
+     *  handle.  SPEC must have my library's alphabet and number of
+     *  slots. */
+    int open(MachineSpec spec, MachineCursor cursor) {
+        if (spec.alphabet().size() != _size
+            || spec.numRotors() != _numRotors) {
+            throw error("The machine doesn't fit this arena!");
+        }
+        long state = (long) intern(spec) << _positionBits;
+        for (int x = 1; x < _numRotors; x += 1) {
+            state |= (long) cursor.setting(x) << shift(x);
+        }
+        synchronized (this) {
+            int session = _free;
+            if (session == -1) {
+                session = _limit;
+                if (session >> PAGE_BITS == _pages.length) {
+                    long[][] pages = Arrays.copyOf(_pages, _pages.length + 1);
+                    pages[_pages.length] = new long[PAGE_SIZE];
+                    Arrays.fill(pages[_pages.length], -1);
+                    _pages = pages;
+                }
+                _limit += 1;
+            } else {
+                _free = (int) ~get(session) - 1;
+            }
+            set(session, state);
+            _open += 1;
+            return session;
+        }
+    }
+
+    /** Close SESSION, whose handle may then be reused. */
+    synchronized void close(int session) {
+        release((int) (check(session) >>> _positionBits));
+        set(session, ~(long) (_free + 1));
+        _free = session;
+        _open -= 1;
+    }
+
+    /** Convert the LEN characters of IN starting at OFF with SESSION,
+     *  storing the results in OUT starting at OUTOFF, as
+     *  MachineSpec.convert does, and advance SESSION accordingly.  OUT
+     *  may be IN, provided that OUTOFF <= OFF. */
+    void convert(int session, char[] in, int off, int len, char[] out,
+                 int outOff) {
+        long state = check(session);
+        MachineSpec spec = _specs[(int) (state >>> _positionBits)];
+        int[] pos = _positions.get();
+        unpack(state, pos);
+        spec.convert(pos, in, off, len, out, outOff);
+        set(session, pack(state, pos));
+    }
+
+    /** Return the conversion of MSG with SESSION, advancing SESSION
+     *  accordingly. */
+    String convert(int session, String msg) {
+        char[] buf = msg.toCharArray();
+        convert(session, buf, 0, buf.length, buf, 0);
+        return new String(buf);
+    }
+
+    /** Return the spec of SESSION. */
+    MachineSpec spec(int session) {
+        return _specs[(int) (check(session) >>> _positionBits)];
+    }
+
+    /** Return a cursor at the positions of SESSION, which does not move
+     *  with it. */
+    MachineCursor cursor(int session) {
+        long state = check(session);
+        int[] settings = new int[_numRotors];
+        unpack(state, settings);
+        return _specs[(int) (state >>> _positionBits)].cursor(settings);
+    }
+
+    /** Return the number of open sessions. */
+    synchronized int size() {
+        return _open;
+    }
+
+    /** Return the number of distinct specs my open sessions use. */
+    synchronized int machines() {
+        return _ids.size();
+    }
+
+    /** Return the number of SPEC's interned twin, interning a twin of
+     *  SPEC if it has none, and count one more session using it. */
+    private synchronized int intern(MachineSpec spec) {
+        Shape shape = new Shape(spec);
+        Integer id = _ids.get(shape);
+        if (id == null) {
+            MachineSpec base = _orders.computeIfAbsent(
+                Arrays.asList(shape._slots), k -> spec);
+            MachineSpec twin = base == spec ? spec
+                : base.withPlugboard(shape._plugboard);
+            if (_freeIds.isEmpty()) {
+                id = _specs.length;
+                int length = id + 1 + id / 2;
+                MachineSpec[] specs = Arrays.copyOf(_specs, length);
+                _shapes = Arrays.copyOf(_shapes, length);
+                _refs = Arrays.copyOf(_refs, length);
+                specs[id] = twin;
+                _specs = specs;
+                for (int x = length - 1; x > id; x -= 1) {
+                    _freeIds.push(x);
+                }
+            } else {
+                id = _freeIds.pop();
+                _specs[id] = twin;
+            }
+            _ids.put(shape, id);
+            _shapes[id] = shape;
+        }
+        _refs[id] += 1;
+        return id;
+    }
+
+    /** Count one fewer session using spec number ID, freeing it if that
+     *  was the last. */
+    private void release(int id) {
+        _refs[id] -= 1;
+        if (_refs[id] == 0) {
+            _ids.remove(_shapes[id]);
+            _shapes[id] = null;
+            _specs[id] = null;
+            _freeIds.push(id);
+        }
+    }
+
+    /** Store the positions packed in STATE into POS. */
+    private void unpack(long state, int[] pos) {
+        long mask = (1L << _bits) - 1;
+        for (int x = 1; x < _numRotors; x += 1) {
+            pos[x] = (int) (state >>> shift(x) & mask);
+        }
+    }
+
+    /** Return STATE with its positions replaced by POS. */
+    private long pack(long state, int[] pos) {
+        long result = state >>> _positionBits << _positionBits;
+        for (int x = 1; x < _numRotors; x += 1) {
+            result |= (long) pos[x] << shift(x);
+        }
+        return result;
+    }
+
+    /** Return the offset within a state of the position of slot K. */
+    private int shift(int k) {
+        return _bits * (k - 1);
+    }
+
+    /** Return the state of SESSION, which must be open. */
+    private long check(int session) {
+        long[][] pages = _pages;
+        long state = session < 0 || session >> PAGE_BITS >= pages.length
+            ? -1 : pages[session >> PAGE_BITS][session & PAGE_MASK];
+        if (state < 0) {
+            throw error("There is no session %d!", session);
+        }
+        return state;
+    }
+
+    /** Return the state of SESSION. */
+    private long get(int session) {
+        return _pages[session >> PAGE_BITS][session & PAGE_MASK];
+    }
+
+    /** Set the state of SESSION to STATE. */
+    private void set(int session, long state) {
+        _pages[session >> PAGE_BITS][session & PAGE_MASK] = state;
+    }
+
+    /** What makes specs interchangeable: the wirings in each slot and the
+     *  plugboard. */
+    private static final class Shape {
+
+        /** The shape of SPEC. */
+        Shape(MachineSpec spec) {
+            _slots = new Wiring[spec.numRotors()];
+            for (int x = 0; x < _slots.length; x += 1) {
+                _slots[x] = spec.slot(x);
+            }
+            _plugboard = spec.plugboard();
+            _hash = Objects.hash(Arrays.hashCode(_slots),
+                                 Arrays.hashCode(_plugboard));
+        }
+
+        @Override
+        public boolean equals(Object obj) {
+            if (!(obj instanceof Shape)) {
+                return false;
+            }
+            Shape other = (Shape) obj;
+            return Arrays.equals(_slots, other._slots)
+                && Arrays.equals(_plugboard, other._plugboard);
+        }
+
+        @Override
+        public int hashCode() {
+            return _hash;
+        }
+
+        /** Wiring of each slot. */
+        private final Wiring[] _slots;
+
+        /** Plugboard table. */
+        private final int[] _plugboard;
+
+        /** My hash code. */
+        private final int _hash;
+    }
+
+    /** Most bits of a state given to positions, leaving the rest (less
+     *  the sign bit, which marks closed sessions) to spec numbers. */
+    private static final int MAX_POSITION_BITS = 32;
+
+    /** Log2 of the number of sessions per page. */
+    private static final int PAGE_BITS = 16;
+
+    /** Number of sessions per page. */
+    private static final int PAGE_SIZE = 1 << PAGE_BITS;
+
+    /** Mask of a session's index within its page. */
+    private static final int PAGE_MASK = PAGE_SIZE - 1;
+
+    /** Most machines remembered for the settings lines opened. */
+    private static final int MACHINE_CACHE_SIZE = 256;
+
+    /** Machines of the settings lines opened. */
+    private final MachineCache _machines;
+
+    /** Size of the alphabet. */
+    private final int _size;
+
+    /** Number of rotor slots. */
+    private final int _numRotors;
+
+    /** Bits per position. */
+    private final int _bits;
+
+    /** Bits of a state holding positions. */
+    private final int _positionBits;
+
+    /** Interned specs, by number, null for numbers not in use. */
+    private volatile MachineSpec[] _specs;
+
+    /** The shape of each interned spec, by number. */
+    private Shape[] _shapes;
+
+    /** Number of open sessions using each spec, by number. */
+    private int[] _refs;
+
+    /** The number of each interned spec, by shape. */
+    private final Map<Shape, Integer> _ids;
+
+    /** Spec numbers not in use, the most recently freed first. */
+    private final Deque<Integer> _freeIds;
+
+    /** The full spec of each rotor order opened, by the wirings of its
+     *  slots, whose tables the interned specs of that order share. */
+    private final Map<List<Wiring>, MachineSpec> _orders;
+
+    /** Pages of states.  The state of a closed session is the complement
+     *  of one more than the next closed session's handle (or of 0 if it
+     *  is the last), and so negative, as are those of handles not yet
+     *  used. */
+    private volatile long[][] _pages;
+
+    /** Each thread's buffer of positions to convert in, so that
+     *  converting allocates nothing. */
+    private final ThreadLocal<int[]> _positions;
+
+    /** Handle of the first closed session, or -1. */
+    private int _free;
+
+    /** Number of handles ever used. */
+    private int _limit;
+
+    /** Number of open sessions. */
+    private int _open;
+}
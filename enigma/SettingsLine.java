@@ -0,0 +1,90 @@
+package enigma;
+
+import java.util.Arrays;
+
+import static enigma.EnigmaException.*;
+
+/** The parts of a settings line such as
+ *  "* B BETA III IV I AXLE (HQ) (EX)": the names of the rotors, their
+ *  settings and the plugboard's cycles, in which characters may be
+ *  written as Escapes.  The rotor names and the plugboard may be left
+ *  out, in which case Main keeps those of the previous settings line.
+ *  @author Abel Yagubyan
+ */
+final class SettingsLine {
+
+    /** The settings line LINE. */
+    SettingsLine(String line) {
+        String cmd = line;
+        int dif = cmd.indexOf('*');
+        int ind = cmd.indexOf('(');
+        if (ind != -1) {
+            if (ind <= dif) {
+                throw error("The plugboard must follow the settings!");
+            }
+            _plugboard = cmd.substring(ind);
+            cmd = cmd.substring(0, ind - 1);
+        } else {
+            _plugboard = null;
+        }
+        cmd = cmd.substring(dif + 1);
+        String[] rot = cmd.trim().split("\\s+");
+        _rotors = Arrays.copyOfRange(rot, 0, rot.length - 1);
+        _setting = Escapes.decode(rot[rot.length - 1]);
+    }
+
+    /** Return the names of my rotors (the reflector first), which are
+     *  none if they were left out. */
+    String[] rotors() {
+        return _rotors.clone();
+    }
+
+    /** Return my rotor settings, any Escapes in them decoded. */
+    String setting() {
+        return _setting;
+    }
+
+    /** Return my plugboard's cycles, or null if they were left out. */
+    String plugboard() {
+        return _plugboard;
+    }
+
+    /** Return the spec of a machine holding my rotors, taken from
+     *  LIBRARY, and my plugboard (or none, if I have none).  My rotors
+     *  must not have been left out. */
+    MachineSpec spec(RotorLibrary library) {
+        if (_rotors.length == 0) {
+            throw error("The settings must name the rotors!");
+        }
+        return library.spec(_rotors, Cycles.parse(
+            _plugboard == null ? "" : _plugboard, library.alphabet()));
+    }
+
+    /** Return a cursor on SPEC at my rotor settings, read as settings
+     *  characters of LIBRARY. */
+    MachineCursor cursor(MachineSpec spec, RotorLibrary library) {
+        return cursor(spec, library, _setting);
+    }
+
+    /** Return a cursor on SPEC at the rotor settings SETTING, with any
+     *  Escapes already decoded, read as settings characters of
+     *  LIBRARY. */
+    static MachineCursor cursor(MachineSpec spec, RotorLibrary library,
+                                String setting) {
+        Alphabet alpha = library.alphabet();
+        char[] st = new char[setting.length()];
+        for (int x = 0; x < st.length; x += 1) {
+            st[x] = alpha.toChar(library.settingIndex(setting.charAt(x)));
+        }
+        return spec.cursor(new String(st));
+    }
+
+    /** Names of the rotors. */
+    private final String[] _rotors;
+
+    /** Rotor settings. */
+    private final String _setting;
+
+    /** Plugboard cycles, or null. */
+    private final String _plugboard;
+}
@@ -0,0 +1,130 @@
+package enigma;
+
+import jdk.incubator.vector.IntVector;
+import jdk.incubator.vector.VectorMask;
+import jdk.incubator.vector.VectorOperators;
+import jdk.incubator.vector.VectorSpecies;
+
+/** The BatchConverter kernel built on the Vector API: a block is one
+ *  vector of lanes of the preferred species, every lane's positions are
+ *  advanced with masked adds, and the wiring, notch, plugboard and core
+ *  tables are read with gathers.  BatchConverter loads this class by
+ *  name, so that the rest of the package neither needs nor links against
+ *  jdk.incubator.vector when it is absent.
+ *  @author Abel Yagubyan
+ */
+final class VectorBatchKernel implements BatchConverter.Kernel {
+
+    @Override
+    public String name() {
+        return "vector";
+    }
+
+    @Override
+    public int width() {
+        return SPECIES.length();
+    }
+
+    @Override
+    public void convert(BatchConverter.Lanes lanes, int from, int[] in,
+                        int[] out, int[] remaining, int steps) {
+        int size = lanes.size();
+        int n = lanes.numRotors();
+        int first = lanes.firstMoving();
+        int last = n - 1;
+        int low = n - lanes.numPawls() + 1;
+        int width = SPECIES.length();
+        int[] index = new int[width];
+        IntVector left = IntVector.fromArray(SPECIES, remaining, 0);
+        VectorMask<Integer> none = SPECIES.maskAll(false);
+        for (int t = 0; t < steps; t += 1) {
+            VectorMask<Integer> active = left.compare(VectorOperators.GT, t);
+            IntVector pos = IntVector.fromArray(SPECIES,
+                                                lanes.positions(last), from);
+            VectorMask<Integer> carry =
+                notch(lanes, last, from, pos, index);
+            VectorMask<Integer> stepped = lanes.rotates(last) ? active : none;
+            advance(lanes.positions(last), from, pos, stepped, size);
+            for (int x = last; x >= low; x -= 1) {
+                IntVector leftPos =
+                    IntVector.fromArray(SPECIES, lanes.positions(x - 1), from);
+                VectorMask<Integer> nextCarry =
+                    notch(lanes, x - 1, from, leftPos, index);
+                VectorMask<Integer> next =
+                    lanes.rotates(x - 1) ? carry.and(active) : none;
+                advance(lanes.positions(x - 1), from, leftPos, next, size);
+                VectorMask<Integer> behind = next.andNot(stepped);
+                if (behind.anyTrue()) {
+                    IntVector here = IntVector.fromArray(
+                        SPECIES, lanes.positions(x), from);
+                    advance(lanes.positions(x), from, here, behind, size);
+                }
+                stepped = next;
+                carry = nextCarry;
+            }
+            IntVector plugBase =
+                IntVector.fromArray(SPECIES, lanes.plugboardBase(), from);
+            IntVector c = IntVector.fromArray(SPECIES, in, t * width);
+            c = gather(lanes.plugboardPool(), plugBase.add(c), index);
+            for (int x = last; x >= first; x -= 1) {
+                c = through(lanes.forwardPool(), lanes.forwardBase(x),
+                            lanes.positions(x), from, c, size, index);
+            }
+            IntVector coreBase =
+                IntVector.fromArray(SPECIES, lanes.coreBase(), from);
+            c = gather(lanes.corePool(), coreBase.add(c), index);
+            for (int x = first; x <= last; x += 1) {
+                c = through(lanes.backwardPool(), lanes.backwardBase(x),
+                            lanes.positions(x), from, c, size, index);
+            }
+            c = gather(lanes.inversePool(), plugBase.add(c), index);
+            c.intoArray(out, t * width);
+        }
+    }
+
+    /** Return the lanes of slot K, from lane FROM on, that are at a notch,
+     *  given their positions POS, using INDEX as scratch space. */
+    private static VectorMask<Integer> notch(BatchConverter.Lanes lanes,
+                                             int k, int from, IntVector pos,
+                                             int[] index) {
+        IntVector base = IntVector.fromArray(SPECIES, lanes.notchBase(k),
+                                             from);
+        return gather(lanes.notchPool(), base.add(pos), index)
+            .compare(VectorOperators.NE, 0);
+    }
+
+    /** Advance by one the lanes of POS selected by MOVE, for an alphabet
+     *  of size SIZE, storing the result in POSITIONS from lane FROM. */
+    private static void advance(int[] positions, int from, IntVector pos,
+                                VectorMask<Integer> move, int size) {
+        IntVector result = pos.add(1, move);
+        result = result.blend(0, result.compare(VectorOperators.EQ, size));
+        result.intoArray(positions, from);
+    }
+
+    /** Return the result of passing C through the wirings at offsets BASE
+     *  of POOL, for rotors at settings POSITIONS, from lane FROM on, and
+     *  an alphabet of size SIZE, using INDEX as scratch space. */
+    private static IntVector through(int[] pool, int[] base,
+                                     int[] positions, int from, IntVector c,
+                                     int size, int[] index) {
+        IntVector posn = IntVector.fromArray(SPECIES, positions, from);
+        IntVector k = c.add(posn);
+        k = k.sub(size, k.compare(VectorOperators.GE, size));
+        IntVector offset = IntVector.fromArray(SPECIES, base, from);
+        k = gather(pool, offset.add(k), index).sub(posn);
+        return k.add(size, k.compare(VectorOperators.LT, 0));
+    }
+
+    /** Return the entries of TABLE at the indices in INDICES, using INDEX
+     *  as scratch space. */
+    private static IntVector gather(int[] table, IntVector indices,
+                                    int[] index) {
+        indices.intoArray(index, 0);
+        return IntVector.fromArray(SPECIES, table, 0, index, 0);
+    }
+
+    /** Shape of the vectors of lanes. */
+    private static final VectorSpecies<Integer> SPECIES =
+        IntVector.SPECIES_PREFERRED;
+}
@@ -0,0 +1,104 @@
+package enigma;
+
+/** The wiring of a single rotor, flattened into primitive lookup tables
+ *  indexed by alphabet position.  A Wiring never changes once built, so
+ *  it may be shared freely between compiled machines.
+ *  @author Abel Yagubyan
+ */
+final class Wiring {
+
+    /** The wiring of ROTOR at its 0 setting, taken from its permutation
+     *  and (for moving rotors) its notches. */
+    Wiring(Rotor rotor) {
+        Permutation perm = rotor.permutation();
+        Alphabet alpha = rotor.alphabet();
+        int size = rotor.size();
+        _name = rotor.name();
+        _rotates = rotor.rotates();
+        _reflecting = rotor.reflecting();
+        _forward = new int[size];
+        _backward = new int[size];
+        _notches = new boolean[size];
+        for (int x = 0; x < size; x += 1) {
+            _forward[x] = perm.permute(x);
+            _backward[x] = perm.invert(x);
+        }
+        if (rotor instanceof MovingRotor) {
+            for (char ch : ((MovingRotor) rotor).notches().toCharArray()) {
+                if (alpha.contains(ch)) {
+                    _notches[alpha.toInt(ch)] = true;
+                }
+            }
+        }
+    }
+
+    /** The wiring of the rotor named NAME, which advances iff ROTATES and
+     *  is a reflector iff REFLECTING, mapping index K to FORWARD[K] and
+     *  BACKWARD[K] and having a notch at setting K iff NOTCHES[K].  The
+     *  tables become mine; BACKWARD must be the inverse of FORWARD. */
+    Wiring(String name, boolean rotates, boolean reflecting, int[] forward,
+           int[] backward, boolean[] notches) {
+        _name = name;
+        _rotates = rotates;
+        _reflecting = reflecting;
+        _forward = forward;
+        _backward = backward;
+        _notches = notches;
+    }
+
+    /** Return my rotor's name. */
+    String name() {
+        return _name;
+    }
+
+    /** Return the size of my alphabet. */
+    int size() {
+        return _forward.length;
+    }
+
+    /** Return true iff my rotor advances. */
+    boolean rotates() {
+        return _rotates;
+    }
+
+    /** Return true iff my rotor is a reflector. */
+    boolean reflecting() {
+        return _reflecting;
+    }
+
+    /** Return the table mapping each index to its image at the 0 setting.
+     *  The caller must not modify it. */
+    int[] forward() {
+        return _forward;
+    }
+
+    /** Return the table mapping each index to its pre-image at the 0
+     *  setting.  The caller must not modify it. */
+    int[] backward() {
+        return _backward;
+    }
+
+    /** Return a table whose entry K is true iff setting K is a notch.  The
+     *  caller must not modify it. */
+    boolean[] notches() {
+        return _notches;
+    }
+
+    /** Name of the rotor this wiring came from. */
+    private final String _name;
+
+    /** True iff the rotor advances. */
+    private final boolean _rotates;
+
+    /** True iff the rotor is a reflector. */
+    private final boolean _reflecting;
+
+    /** Forward (right to left) wiring at the 0 setting. */
+    private final int[] _forward;
+
+    /** Backward (left to right) wiring at the 0 setting. */
+    private final int[] _backward;
+
+    /** Settings at which the rotor is at a notch. */
+    private final boolean[] _notches;
+}
@@ -0,0 +1,291 @@
+package enigma;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+import static enigma.EnigmaException.*;
+
+/** Checks a SessionArena against bare MachineCursors.  Random sessions
+ *  are opened (from settings lines and from specs and cursors), converted,
+ *  closed and reopened, and after every step each open session must
+ *  convert as, and stand at the positions of, its own cursor.  Along the
+ *  way it checks the bookkeeping: that a closed handle is refused and is
+ *  the next one handed out, that sessions with the same rotors and
+ *  plugboard share one interned spec, that the number of specs in use
+ *  follows the sessions that use them, and that an arena emptied of
+ *  sessions holds no specs and can be filled again.
+ *  @author Abel Yagubyan
+ */
+public final class ArenaCheck {
+
+    /** Check arenas of the configuration files ARGS.  Exits with code 1
+     *  on the first discrepancy. */
+    public static void main(String... args) {
+        try {
+            if (args.length == 0) {
+                throw error("Usage: ArenaCheck CONFIG...");
+            }
+            Random random = new Random(SEED);
+            for (String name : args) {
+                new ArenaCheck(Main.loadLibrary(name), random).run();
+            }
+            System.out.printf("arena: %d configurations OK%n", args.length);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** A check of an arena of LIBRARY, making its choices with RANDOM. */
+    private ArenaCheck(RotorLibrary library, Random random) {
+        _library = library;
+        _random = random;
+        _arena = new SessionArena(library);
+        _orders = library.orders();
+        _handles = new int[SESSIONS];
+        _specs = new MachineSpec[SESSIONS];
+        _cursors = new MachineCursor[SESSIONS];
+        Arrays.fill(_handles, -1);
+        _lastClosed = -1;
+    }
+
+    /** Churn my arena, then empty it, refill it and empty it again. */
+    private void run() {
+        for (int round = 0; round < 2; round += 1) {
+            for (int step = 0; step < STEPS; step += 1) {
+                int k = _random.nextInt(SESSIONS);
+                if (_handles[k] == -1) {
+                    open(k);
+                } else if (_random.nextInt(8) == 0) {
+                    close(k);
+                } else {
+                    convert(k);
+                }
+                if (step % AUDIT_INTERVAL == 0) {
+                    audit();
+                }
+            }
+            for (int k = 0; k < SESSIONS; k += 1) {
+                if (_handles[k] != -1) {
+                    close(k);
+                }
+            }
+            audit();
+            if (_arena.machines() != 0) {
+                throw error("An empty arena holds %d specs",
+                            _arena.machines());
+            }
+        }
+        refused(-1);
+        refused(Integer.MAX_VALUE);
+    }
+
+    /** Open session K, checking that it takes the handle closed last. */
+    private void open(int k) {
+        String[] order = _orders.get(_random.nextInt(_orders.size()));
+        int handle;
+        if (_random.nextBoolean()) {
+            String line = settingsLine(order);
+            SettingsLine settings = new SettingsLine(line);
+            _specs[k] = settings.spec(_library);
+            _cursors[k] = settings.cursor(_specs[k], _library);
+            handle = _arena.open(line);
+        } else {
+            _specs[k] = _library.spec(order, plugboard());
+            int[] positions = new int[_specs[k].numRotors()];
+            for (int x = 1; x < positions.length; x += 1) {
+                positions[x] = _random.nextInt(size());
+            }
+            _cursors[k] = _specs[k].cursor(positions);
+            handle = _arena.open(_specs[k], _cursors[k].copy());
+        }
+        if (_lastClosed != -1 && handle != _lastClosed) {
+            throw error("Opened handle %d rather than the freed %d",
+                        handle, _lastClosed);
+        }
+        _lastClosed = -1;
+        _handles[k] = handle;
+        compare(k);
+    }
+
+    /** Close session K, checking that its handle is then refused. */
+    private void close(int k) {
+        int handle = _handles[k];
+        _arena.close(handle);
+        _handles[k] = -1;
+        refused(handle);
+        _lastClosed = handle;
+    }
+
+    /** Convert a random message with session K and with its cursor. */
+    private void convert(int k) {
+        char[] msg = new char[_random.nextInt(MAX_MESSAGE)];
+        for (int x = 0; x < msg.length; x += 1) {
+            msg[x] = _library.alphabet().toChar(_random.nextInt(size()));
+        }
+        String got = _arena.convert(_handles[k], new String(msg));
+        String want = _specs[k].convert(_cursors[k], new String(msg));
+        if (!got.equals(want)) {
+            throw error("Session %d converted %s as %s, not %s",
+                        _handles[k], new String(msg), got, want);
+        }
+        compare(k);
+    }
+
+    /** Check that session K stands where its cursor does. */
+    private void compare(int k) {
+        int[] got = _arena.cursor(_handles[k]).positions();
+        if (!Arrays.equals(got, _cursors[k].positions())) {
+            throw error("Session %d is at %s, not %s", _handles[k],
+                        Arrays.toString(got),
+                        Arrays.toString(_cursors[k].positions()));
+        }
+    }
+
+    /** Check the arena's counts, handles and interned specs against the
+     *  open sessions. */
+    private void audit() {
+        Map<String, MachineSpec> interned = new HashMap<>();
+        Set<Integer> handles = new HashSet<>();
+        int open = 0;
+        for (int k = 0; k < SESSIONS; k += 1) {
+            if (_handles[k] == -1) {
+                continue;
+            }
+            open += 1;
+            if (!handles.add(_handles[k])) {
+                throw error("Handle %d is open twice", _handles[k]);
+            }
+            MachineSpec spec = _arena.spec(_handles[k]);
+            MachineSpec twin = interned.putIfAbsent(shape(_specs[k]), spec);
+            if (twin != null && twin != spec) {
+                throw error("Session %d has its own copy of a spec",
+                            _handles[k]);
+            }
+            compare(k);
+        }
+        if (_arena.size() != open) {
+            throw error("The arena has %d sessions, not %d",
+                        _arena.size(), open);
+        }
+        if (_arena.machines() != interned.size()) {
+            throw error("The arena has %d specs, not %d",
+                        _arena.machines(), interned.size());
+        }
+    }
+
+    /** Check that my arena refuses HANDLE, which is not open. */
+    private void refused(int handle) {
+        try {
+            _arena.convert(handle, "");
+        } catch (EnigmaException excp) {
+            try {
+                _arena.close(handle);
+            } catch (EnigmaException excp2) {
+                return;
+            }
+        }
+        throw error("Handle %d was accepted after it was closed", handle);
+    }
+
+    /** Return a key naming the rotors and plugboard of SPEC. */
+    private static String shape(MachineSpec spec) {
+        StringBuilder result = new StringBuilder();
+        for (int x = 0; x < spec.numRotors(); x += 1) {
+            result.append(spec.slot(x).name()).append(' ');
+        }
+        return result.append(Arrays.toString(spec.plugboard())).toString();
+    }
+
+    /** Return a settings line with rotors ORDER at random settings and a
+     *  random plugboard, any character written as an escape. */
+    private String settingsLine(String[] order) {
+        StringBuilder result = new StringBuilder("*");
+        for (String name : order) {
+            result.append(' ').append(name);
+        }
+        result.append(' ');
+        for (int x = 1; x < order.length; x += 1) {
+            char ch = _library.settingChar(_random.nextInt(size()));
+            if (ch <= 0xFF) {
+                result.append(String.format("\\x%02X", (int) ch));
+            } else {
+                result.append('\\').append('u')
+                    .append(String.format("%04X", (int) ch));
+            }
+        }
+        return result.append(' ')
+            .append(Cycles.format(plugboard(), _library.alphabet()))
+            .toString();
+    }
+
+    /** Return a random plugboard table, usually one of a few, so that
+     *  sessions often share a spec. */
+    private int[] plugboard() {
+        Random random = new Random(_random.nextInt(PLUGBOARDS));
+        int[] result = new int[size()];
+        for (int x = 0; x < result.length; x += 1) {
+            result[x] = x;
+        }
+        for (int x = 0; x + 1 < result.length; x += 2) {
+            if (random.nextBoolean()) {
+                result[x] = x + 1;
+                result[x + 1] = x;
+            }
+        }
+        return result;
+    }
+
+    /** Return the size of my library's alphabet. */
+    private int size() {
+        return _library.alphabet().size();
+    }
+
+    /** Seed of the random choices, fixed so that failures repeat. */
+    private static final long SEED = 22;
+
+    /** Sessions open at once, at most. */
+    private static final int SESSIONS = 500;
+
+    /** Operations per round. */
+    private static final int STEPS = 40000;
+
+    /** Operations between full audits. */
+    private static final int AUDIT_INTERVAL = 1000;
+
+    /** Distinct plugboards used. */
+    private static final int PLUGBOARDS = 8;
+
+    /** Longest message converted, plus one. */
+    private static final int MAX_MESSAGE = 40;
+
+    /** The library of my arena's machines. */
+    private final RotorLibrary _library;
+
+    /** Source of my choices. */
+    private final Random _random;
+
+    /** The arena under test. */
+    private final SessionArena _arena;
+
+    /** The rotor orders of _library. */
+    private final List<String[]> _orders;
+
+    /** Handle of each session, or -1 if it is closed. */
+    private final int[] _handles;
+
+    /** Spec of each session's bare cursor. */
+    private final MachineSpec[] _specs;
+
+    /** The bare cursor of each session. */
+    private final MachineCursor[] _cursors;
+
+    /** The handle closed since the last open, or -1. */
+    private int _lastClosed;
+}
@@ -0,0 +1,161 @@
+package enigma;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Random;
+
+import static enigma.EnigmaException.*;
+
+/** Checks that BatchConverter converts exactly as MachineSpec.convert
+ *  does, whichever kernel it runs.  Each batch gives its lanes random
+ *  rotor orders, plugboards, settings and message lengths (some lanes
+ *  sharing a spec, some messages empty, some longer than a tile),
+ *  converts twice in place, and compares every message and every
+ *  cursor's final positions with those of a lone cursor.  The Makefile
+ *  runs it with the Vector API, without it, and with enigma.vector set
+ *  to false.
+ *  @author Abel Yagubyan
+ */
+public final class KernelCheck {
+
+    /** Check the kernel named ARGS[0] ("vector" or "scalar"), which must
+     *  be the one BatchConverter has chosen, on machines of the
+     *  configuration files ARGS[1..].  Exits with code 1 on the first
+     *  mismatch. */
+    public static void main(String... args) {
+        try {
+            if (args.length < 2) {
+                throw error("Usage: KernelCheck KERNEL CONFIG...");
+            }
+            if (!args[0].equals(BatchConverter.kernelName())) {
+                throw error("Expected the %s kernel, but have the %s one",
+                            args[0], BatchConverter.kernelName());
+            }
+            Random random = new Random(SEED);
+            for (int k = 1; k < args.length; k += 1) {
+                RotorLibrary library = Main.loadLibrary(args[k]);
+                for (int t = 0; t < BATCHES; t += 1) {
+                    checkBatch(library, random);
+                }
+            }
+            System.out.printf("%s kernel: %d configurations OK%n",
+                              args[0], args.length - 1);
+            return;
+        } catch (EnigmaException excp) {
+            System.err.printf("Error: %s%n", excp.getMessage());
+        }
+        System.exit(1);
+    }
+
+    /** Convert a random batch of machines of LIBRARY, chosen with
+     *  RANDOM, and compare it with MachineSpec.convert. */
+    private static void checkBatch(RotorLibrary library, Random random) {
+        List<String[]> orders = shaped(library, random);
+        int size = library.alphabet().size();
+        int lanes = 1 + random.nextInt(random.nextBoolean() ? 40 : 700);
+        MachineSpec[] specs = new MachineSpec[lanes];
+        MachineCursor[] cursors = new MachineCursor[lanes];
+        MachineCursor[] lone = new MachineCursor[lanes];
+        for (int x = 0; x < lanes; x += 1) {
+            if (x > 0 && random.nextInt(3) == 0) {
+                specs[x] = specs[random.nextInt(x)];
+            } else {
+                specs[x] = library.spec(
+                    orders.get(random.nextInt(orders.size())),
+                    plugboard(size, random));
+            }
+            int[] settings = new int[specs[x].numRotors()];
+            for (int k = 1; k < settings.length; k += 1) {
+                settings[k] = random.nextInt(size);
+            }
+            cursors[x] = specs[x].cursor(settings);
+            lone[x] = cursors[x].copy();
+        }
+        BatchConverter batch = new BatchConverter(specs, cursors);
+        for (int round = 0; round < 2; round += 1) {
+            char[][] msgs = new char[lanes][];
+            String[] want = new String[lanes];
+            for (int x = 0; x < lanes; x += 1) {
+                msgs[x] = message(library.alphabet(), random);
+                want[x] = specs[x].convert(lone[x], new String(msgs[x]));
+            }
+            batch.convert(msgs, msgs);
+            for (int x = 0; x < lanes; x += 1) {
+                if (!want[x].equals(new String(msgs[x]))
+                    || !Arrays.equals(lone[x].positions(),
+                                      cursors[x].positions())) {
+                    throw error("Lane %d of %d differs in round %d",
+                                x, lanes, round);
+                }
+            }
+        }
+    }
+
+    /** Return the rotor orders of LIBRARY whose slots rotate as those of
+     *  one order chosen with RANDOM do, so that they share a batch. */
+    private static List<String[]> shaped(RotorLibrary library,
+                                         Random random) {
+        List<String[]> all = library.orders();
+        if (all.isEmpty()) {
+            throw error("The configuration has no rotor orders");
+        }
+        boolean[] pattern = rotating(library, all.get(random.nextInt(
+            all.size())));
+        List<String[]> result = new ArrayList<>();
+        for (String[] order : all) {
+            if (Arrays.equals(pattern, rotating(library, order))) {
+                result.add(order);
+            }
+        }
+        return result;
+    }
+
+    /** Return which slots of ORDER, named in LIBRARY, rotate. */
+    private static boolean[] rotating(RotorLibrary library, String[] order) {
+        boolean[] result = new boolean[order.length];
+        for (int x = 0; x < order.length; x += 1) {
+            result[x] = library.wiring(order[x]).rotates();
+        }
+        return result;
+    }
+
+    /** Return a random plugboard table, chosen with RANDOM, swapping
+     *  pairs of an alphabet of SIZE characters. */
+    private static int[] plugboard(int size, Random random) {
+        List<Integer> shuffled = new ArrayList<>();
+        for (int x = 0; x < size; x += 1) {
+            shuffled.add(x);
+        }
+        Collections.shuffle(shuffled, random);
+        int[] result = new int[size];
+        for (int x = 0; x < size; x += 1) {
+            result[x] = x;
+        }
+        for (int x = random.nextInt(size / 2 + 1); x > 0; x -= 1) {
+            int a = shuffled.get(2 * x - 2), b = shuffled.get(2 * x - 1);
+            result[a] = b;
+            result[b] = a;
+        }
+        return result;
+    }
+
+    /** Return a random message in ALPHA, chosen with RANDOM: usually
+     *  short, sometimes empty, now and then several tiles long. */
+    private static char[] message(Alphabet alpha, Random random) {
+        int length = random.nextInt(8) == 0 ? random.nextInt(3000)
+            : random.nextInt(60);
+        char[] result = new char[length];
+        for (int x = 0; x < length; x += 1) {
+            result[x] = alpha.toChar(random.nextInt(alpha.size()));
+        }
+        return result;
+    }
+
+    /** Seed of the random batches, fixed so that failures repeat. */
+    private static final long SEED = 61;
+
+    /** Batches checked per configuration. */
+    private static final int BATCHES = 25;
+}